@@ -5,25 +5,39 @@ import com.guyazhou.plugin.reviewboard.exceptions.InvalidFileException;
 import com.guyazhou.plugin.reviewboard.i18n.MessageBundleUtil;
 import com.guyazhou.plugin.reviewboard.i18n.MessageProperties;
 import com.guyazhou.plugin.reviewboard.tasks.PrepareVcsInfoTask;
+import com.guyazhou.plugin.reviewboard.vcsprovider.ShelvedPatchLoader;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsDataKeys;
+import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
-import com.intellij.openapi.vcs.changes.LocalChangeList;
+import com.intellij.openapi.vcs.changes.ChangesUtil;
+import com.intellij.openapi.vcs.changes.shelf.ShelvedChange;
+import com.intellij.openapi.vcs.changes.shelf.ShelvedChangeList;
+import com.intellij.openapi.vcs.changes.shelf.ShelvedChangesViewManager;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.vcsUtil.VcsUtil;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Review action
@@ -39,68 +53,193 @@ public class ReviewAction extends AnAction {
 
         log.info("=================================================== Submit Review Start ===================================================");
 
+        Project project = event.getProject();
+        // the Changes view and the shelf provide changes, deleted and moved files included, other views only files
+        List<ShelvedChange> shelvedChanges = event.getData(ShelvedChangesViewManager.SHELVED_CHANGE_KEY);
+        List<ShelvedChangeList> shelvedChangeLists = event.getData(ShelvedChangesViewManager.SHELVED_CHANGELIST_KEY);
+        boolean shelved = (null != shelvedChanges && !shelvedChanges.isEmpty()) || (null != shelvedChangeLists && !shelvedChangeLists.isEmpty());
+        Change[] changes = event.getData(VcsDataKeys.CHANGES);
+        VirtualFile[] virtualFiles = event.getData(PlatformDataKeys.VIRTUAL_FILE_ARRAY);
         try {
-            Project project = event.getProject();
             if (project == null) {
                 throw new InvalidArgumentException(MessageBundleUtil.getBundle().getString(MessageProperties.PROJECT_NULL));
             }
+            if (!shelved && (null == changes || 0 == changes.length) && (null == virtualFiles || 0 == virtualFiles.length)) {
+                throw new InvalidArgumentException("Empty file(s) selected");
+            }
+        } catch (Exception e) {
+            showError(e);
+            return;
+        }
 
-            // FIXME Can not get the deleted file(s), changelist?
-            VirtualFile[] virtualFiles = event.getData(PlatformDataKeys.VIRTUAL_FILE_ARRAY);
-            Map<AbstractVcs, List<VirtualFile>> resultVirtualFilesMap = processVirtualFiles(project, virtualFiles);
+        // a big selection takes a while to resolve, keep it off the EDT, it restarts if a write action comes in between
+        ReadAction.nonBlocking(() -> {
+            // the shelf also provides changes, they are the working copy plus the patch, its stored patch is submitted instead
+            if (shelved) {
+                return resolveSelection(() -> new Selection(null, null, processShelvedChanges(project, getShelvedChanges(project, shelvedChanges, shelvedChangeLists))));
+            }
+            if (null != changes && 0 != changes.length) {
+                return resolveSelection(() -> new Selection(null, processChanges(project, Arrays.asList(changes)), null));
+            }
+            return resolveSelection(() -> new Selection(processVirtualFiles(project, virtualFiles), null, null));
+        })
+                .expireWith(project)
+                .finishOnUiThread(ModalityState.defaultModalityState(), selection -> {
+                    if (null != selection.error) {
+                        showError(selection.error);
+                        return;
+                    }
+                    if (null != selection.shelvedChangesMap) {
+                        for (Map.Entry<AbstractVcs, List<ShelvedChange>> abstractVcsListEntry : selection.shelvedChangesMap.entrySet()) {
+                            log.info(String.format("Retriving vcs [ %s ] of %s shelved change(s)", abstractVcsListEntry.getKey().getName(), abstractVcsListEntry.getValue().size()));
+                            ProgressManager.getInstance().run(PrepareVcsInfoTask.ofShelvedChanges(project, abstractVcsListEntry.getKey(), abstractVcsListEntry.getValue()));
+                        }
+                        return;
+                    }
+                    if (null != selection.changesMap) {
+                        for (Map.Entry<AbstractVcs, List<Change>> abstractVcsListEntry : selection.changesMap.entrySet()) {
+                            log.info(String.format("Retriving vcs [ %s ] of %s change(s)", abstractVcsListEntry.getKey().getName(), abstractVcsListEntry.getValue().size()));
+                            ProgressManager.getInstance().run(new PrepareVcsInfoTask(project, abstractVcsListEntry.getKey(), abstractVcsListEntry.getValue()));
+                        }
+                        return;
+                    }
+                    for (Map.Entry<AbstractVcs, List<VirtualFile>> abstractVcsListEntry : selection.virtualFilesMap.entrySet()) {
+                        log.info(String.format("Retriving vcs [ %s ] of %s file(s)", abstractVcsListEntry.getKey().getName(), abstractVcsListEntry.getValue().size()));
+                        ProgressManager.getInstance().run(new PrepareVcsInfoTask(project, abstractVcsListEntry.getKey(), abstractVcsListEntry.getValue()));
+                    }
+                })
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
 
-            for (Map.Entry<AbstractVcs, List<VirtualFile>> abstractVcsListEntry : resultVirtualFilesMap.entrySet()) {
-                StringBuilder vfBuilder = new StringBuilder();
-                for (VirtualFile virtualFile : abstractVcsListEntry.getValue()) {
-                    vfBuilder.append(virtualFile.getName()).append("-").append(virtualFile.getPath()).append(", ");
-                }
-                vfBuilder.delete(vfBuilder.length() - 2, vfBuilder.length());
-                log.info(String.format("Retriving vcs [ %s ] of files [ %s ]", abstractVcsListEntry.getKey().getName(), vfBuilder.toString()));
-                ProgressManager.getInstance().run(new PrepareVcsInfoTask(project, abstractVcsListEntry.getKey(), abstractVcsListEntry.getValue()));
+    private void showError(Exception e) {
+        // log.error will cause error in event log, seperate exception to exception handler
+        log.warn("Error occured while retriving repositories info", e);
+        Messages.showErrorDialog(e.getMessage(), MessageBundleUtil.getBundle().getString(MessageProperties.MESSAGE_TITLE_ERROR));
+    }
+
+    private Selection resolveSelection(Supplier<Selection> selectionSupplier) {
+        try {
+            return selectionSupplier.get();
+        } catch (InvalidArgumentException | InvalidFileException e) {
+            return new Selection(e);
+        }
+    }
+
+    /**
+     * Get the selected shelved changes, or all text changes of the selected shelved change lists
+     */
+    private List<ShelvedChange> getShelvedChanges(Project project, List<ShelvedChange> shelvedChanges, List<ShelvedChangeList> shelvedChangeLists) {
+        if (null != shelvedChanges && !shelvedChanges.isEmpty()) {
+            return shelvedChanges;
+        }
+        List<ShelvedChange> selectedShelvedChanges = new ArrayList<>();
+        for (ShelvedChangeList shelvedChangeList : shelvedChangeLists) {
+            ProgressManager.checkCanceled();
+            shelvedChangeList.loadChangesIfNeeded(project);
+            if (null != shelvedChangeList.getChanges()) {
+                selectedShelvedChanges.addAll(shelvedChangeList.getChanges());
+            }
+            if (!shelvedChangeList.getBinaryFiles().isEmpty()) {
+                log.info(String.format("%s binary file(s) of a shelf have no text diff, left out", shelvedChangeList.getBinaryFiles().size()));
             }
-        } catch (Exception e) {
-            // log.error will cause error in event log, seperate exception to exception handler
-            log.warn("Error occured while retriving repositories info", e);
-            Messages.showErrorDialog(e.getMessage(), MessageBundleUtil.getBundle().getString(MessageProperties.MESSAGE_TITLE_ERROR));
         }
+        return selectedShelvedChanges;
     }
 
-    private Map<AbstractVcs, List<VirtualFile>> processVirtualFiles(Project project, VirtualFile[] expectedVirtualFiles) {
-        Map<AbstractVcs, List<VirtualFile>> resultVirtualFilesMap = new HashMap<>();
+    private Map<AbstractVcs, List<ShelvedChange>> processShelvedChanges(Project project, List<ShelvedChange> shelvedChanges) {
+        if (shelvedChanges.isEmpty()) {
+            throw new InvalidArgumentException("Empty shelved change(s) selected");
+        }
 
-        if (null == expectedVirtualFiles || 0 == expectedVirtualFiles.length) {
-            throw new InvalidArgumentException("Empty file(s) selected");
+        ProjectLevelVcsManager projectLevelVcsManager = ProjectLevelVcsManager.getInstance(project);
+        Map<AbstractVcs, List<ShelvedChange>> resultShelvedChangesMap = new LinkedHashMap<>();
+        for (ShelvedChange shelvedChange : shelvedChanges) {
+            ProgressManager.checkCanceled();
+            String patchPath = null == shelvedChange.getAfterPath() ? shelvedChange.getBeforePath() : shelvedChange.getAfterPath();
+            AbstractVcs abstractVcs = projectLevelVcsManager.getVcsFor(VcsUtil.getFilePath(ShelvedPatchLoader.getFile(project, patchPath), false));
+            resultShelvedChangesMap.computeIfAbsent(abstractVcs, key -> new ArrayList<>()).add(shelvedChange);
         }
+        checkSingleVcs(resultShelvedChangesMap.keySet());
 
-        ChangeListManager changeListManager = ChangeListManager.getInstance(project);
+        if (null == resultShelvedChangesMap.keySet().iterator().next()) {
+            throw new InvalidFileException("No vcs detected for the selected shelved change(s)");
+        }
+        return resultShelvedChangesMap;
+    }
+
+    private Map<AbstractVcs, List<Change>> processChanges(Project project, List<Change> changes) {
+        if (changes.isEmpty()) {
+            throw new InvalidArgumentException("Empty change(s) selected");
+        }
+
+        ProjectLevelVcsManager projectLevelVcsManager = ProjectLevelVcsManager.getInstance(project);
+        Map<AbstractVcs, List<Change>> resultChangesMap = new LinkedHashMap<>();
+        for (Change change : changes) {
+            ProgressManager.checkCanceled();
+            AbstractVcs abstractVcs = projectLevelVcsManager.getVcsFor(ChangesUtil.getFilePath(change));
+            resultChangesMap.computeIfAbsent(abstractVcs, key -> new ArrayList<>()).add(change);
+        }
+        checkSingleVcs(resultChangesMap.keySet());
+
+        if (null == resultChangesMap.keySet().iterator().next()) {
+            throw new InvalidFileException("No vcs detected for the selected change(s)");
+        }
+        return resultChangesMap;
+    }
+
+    private Map<AbstractVcs, List<VirtualFile>> processVirtualFiles(Project project, VirtualFile[] expectedVirtualFiles) {
+        Map<AbstractVcs, List<VirtualFile>> resultVirtualFilesMap = new LinkedHashMap<>();
+
+        Set<VirtualFile> selectedFiles = new HashSet<>();
+        Set<VirtualFile> selectedDirectories = new HashSet<>();
         for (VirtualFile expectedVirtualFile : expectedVirtualFiles) {
-            // Ignore directory
             if (expectedVirtualFile.isDirectory()) {
-                continue;
+                selectedDirectories.add(expectedVirtualFile);
+            } else {
+                selectedFiles.add(expectedVirtualFile);
             }
+        }
 
-            // Check if the file is in change list
-            LocalChangeList localChangeList = changeListManager.getChangeList(expectedVirtualFile);
-            if (null == localChangeList) {
-                throw new InvalidFileException(String.format("No changelist detected for file: [ %s ] in local changes, " +
-                        "Making some changes or adding it to vcs", expectedVirtualFile.getName()));
+        // One pass over the changed files instead of querying each selected file, directories take their changed descendants
+        ChangeListManager changeListManager = ChangeListManager.getInstance(project);
+        ProjectLevelVcsManager projectLevelVcsManager = ProjectLevelVcsManager.getInstance(project);
+        Set<VirtualFile> changedSelectedFiles = new HashSet<>();
+        for (VirtualFile affectedFile : changeListManager.getAffectedFiles()) {
+            ProgressManager.checkCanceled();
+            boolean selected = selectedFiles.contains(affectedFile);
+            for (VirtualFile parent = affectedFile.getParent(); !selected && null != parent && !selectedDirectories.isEmpty(); parent = parent.getParent()) {
+                selected = selectedDirectories.contains(parent);
+            }
+            if (!selected) {
+                continue;
             }
+            changedSelectedFiles.add(affectedFile);
+            AbstractVcs abstractVcs = projectLevelVcsManager.getVcsFor(affectedFile);
+            resultVirtualFilesMap.computeIfAbsent(abstractVcs, key -> new ArrayList<>()).add(affectedFile);
+        }
 
-            //
-            AbstractVcs abstractVcs = ProjectLevelVcsManager.getInstance(project).getVcsFor(expectedVirtualFile);
-            if (resultVirtualFilesMap.containsKey(abstractVcs)) {
-                resultVirtualFilesMap.get(abstractVcs).add(expectedVirtualFile);
-            } else {
-                List<VirtualFile> virtualFileList = new ArrayList<>();
-                virtualFileList.add(expectedVirtualFile);
-                resultVirtualFilesMap.put(abstractVcs, virtualFileList);
+        // Check if the selected files are in change list
+        for (VirtualFile selectedFile : selectedFiles) {
+            if (!changedSelectedFiles.contains(selectedFile)) {
+                throw new InvalidFileException(String.format("No changelist detected for file: [ %s ] in local changes, " +
+                        "Making some changes or adding it to vcs", selectedFile.getName()));
             }
         }
+        if (resultVirtualFilesMap.isEmpty()) {
+            throw new InvalidFileException("No changed file found in the selected directories");
+        }
 
-        // Currently, we support only one vcs one time
-        if (resultVirtualFilesMap.entrySet().size() > 1) {
+        checkSingleVcs(resultVirtualFilesMap.keySet());
+        return resultVirtualFilesMap;
+    }
+
+    /**
+     * Currently, we support only one vcs one time
+     */
+    private void checkSingleVcs(Set<AbstractVcs> abstractVcsSet) {
+        if (abstractVcsSet.size() > 1) {
             StringBuilder sb = new StringBuilder();
-            for (AbstractVcs abstractVcs : resultVirtualFilesMap.keySet()) {
+            for (AbstractVcs abstractVcs : abstractVcsSet) {
                 if (abstractVcs == null) {
                     sb.append("unversioned,");
                 } else {
@@ -110,7 +249,32 @@ public class ReviewAction extends AnAction {
             sb.deleteCharAt(sb.length() - 1);
             throw new InvalidFileException(String.format("Multiple vcs [ %s ] found, only one supported one time, please submit seperately", sb.toString()));
         }
-        return resultVirtualFilesMap;
+    }
+
+    /**
+     * Selected files, changes or shelved changes by vcs, or why the selection can not be submitted
+     */
+    private static class Selection {
+
+        private final Map<AbstractVcs, List<VirtualFile>> virtualFilesMap;
+        private final Map<AbstractVcs, List<Change>> changesMap;
+        private final Map<AbstractVcs, List<ShelvedChange>> shelvedChangesMap;
+        private final RuntimeException error;
+
+        private Selection(Map<AbstractVcs, List<VirtualFile>> virtualFilesMap, Map<AbstractVcs, List<Change>> changesMap,
+                          Map<AbstractVcs, List<ShelvedChange>> shelvedChangesMap) {
+            this.virtualFilesMap = virtualFilesMap;
+            this.changesMap = changesMap;
+            this.shelvedChangesMap = shelvedChangesMap;
+            this.error = null;
+        }
+
+        private Selection(RuntimeException error) {
+            this.virtualFilesMap = null;
+            this.changesMap = null;
+            this.shelvedChangesMap = null;
+            this.error = error;
+        }
     }
 
 }
@@ -0,0 +1,28 @@
+package com.guyazhou.plugin.reviewboard.exceptions;
+
+/**
+ * Thrown when review board server responds with an error status code
+ */
+public class HttpStatusException extends RuntimeException {
+
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Is the session missing or expired
+     *
+     * @return true if status code is 401 or 403
+     */
+    public boolean isAuthenticationError() {
+        return 401 == statusCode || 403 == statusCode;
+    }
+
+}
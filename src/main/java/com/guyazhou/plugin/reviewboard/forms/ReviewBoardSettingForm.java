@@ -32,10 +32,24 @@ public class ReviewBoardSettingForm {
     private JLabel companionUsernameLabel;
     private JLabel companionPasswordLabel;
     private JPanel basicPanel;
+    private JPanel diffPanel;
+    private JTextField gitDiffBaseField;
+    private JSpinner maxDiffKilobytesSpinner;
+    private JSpinner maxDiffFilesSpinner;
+    private JCheckBox compressDiffUploadCheckBox;
+    private JCheckBox precomputeDiffsCheckBox;
+    private JCheckBox spillDiffFragmentsCheckBox;
+    private JPanel connectionPanel;
+    private JSpinner maxConnectionsPerRouteSpinner;
+    private JSpinner connectionIdleTimeoutSpinner;
 
     {
         testLoginButton.addActionListener(new UserTestLoginActionListener());
         companionTestLoginButton.addActionListener(new UserTestLoginActionListener());
+        maxDiffKilobytesSpinner.setModel(new SpinnerNumberModel(0L, 0L, Long.MAX_VALUE / 1024, 512L));
+        maxDiffFilesSpinner.setModel(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 50));
+        maxConnectionsPerRouteSpinner.setModel(new SpinnerNumberModel(1, 1, 64, 1));
+        connectionIdleTimeoutSpinner.setModel(new SpinnerNumberModel(1, 1, Integer.MAX_VALUE, 10));
     }
 
     /**
@@ -158,4 +172,72 @@ public class ReviewBoardSettingForm {
         this.companionPasswordField.setText(companionPassword);
     }
 
+    public String getGitDiffBase() {
+        return this.gitDiffBaseField.getText().trim();
+    }
+
+    public void setGitDiffBase(String gitDiffBase) {
+        this.gitDiffBaseField.setText(gitDiffBase);
+    }
+
+    /**
+     * Get the diff size budget, the spinner is in KB
+     * @return bytes, 0 for no limit
+     */
+    public long getMaxDiffBytes() {
+        return ((Number) this.maxDiffKilobytesSpinner.getValue()).longValue() * 1024;
+    }
+
+    public void setMaxDiffBytes(long maxDiffBytes) {
+        this.maxDiffKilobytesSpinner.setValue((maxDiffBytes + 1023) / 1024);
+    }
+
+    public int getMaxDiffFiles() {
+        return ((Number) this.maxDiffFilesSpinner.getValue()).intValue();
+    }
+
+    public void setMaxDiffFiles(int maxDiffFiles) {
+        this.maxDiffFilesSpinner.setValue(maxDiffFiles);
+    }
+
+    public boolean isCompressDiffUpload() {
+        return this.compressDiffUploadCheckBox.isSelected();
+    }
+
+    public void setCompressDiffUpload(boolean compressDiffUpload) {
+        this.compressDiffUploadCheckBox.setSelected(compressDiffUpload);
+    }
+
+    public boolean isPrecomputeDiffs() {
+        return this.precomputeDiffsCheckBox.isSelected();
+    }
+
+    public void setPrecomputeDiffs(boolean precomputeDiffs) {
+        this.precomputeDiffsCheckBox.setSelected(precomputeDiffs);
+    }
+
+    public boolean isSpillDiffFragments() {
+        return this.spillDiffFragmentsCheckBox.isSelected();
+    }
+
+    public void setSpillDiffFragments(boolean spillDiffFragments) {
+        this.spillDiffFragmentsCheckBox.setSelected(spillDiffFragments);
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return ((Number) this.maxConnectionsPerRouteSpinner.getValue()).intValue();
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRouteSpinner.setValue(maxConnectionsPerRoute);
+    }
+
+    public int getConnectionIdleTimeout() {
+        return ((Number) this.connectionIdleTimeoutSpinner.getValue()).intValue();
+    }
+
+    public void setConnectionIdleTimeout(int connectionIdleTimeout) {
+        this.connectionIdleTimeoutSpinner.setValue(connectionIdleTimeout);
+    }
+
 }
@@ -3,13 +3,18 @@ package com.guyazhou.plugin.reviewboard.forms;
 import com.guyazhou.plugin.reviewboard.exceptions.InvalidArgumentException;
 import com.guyazhou.plugin.reviewboard.model.repository.Repository;
 import com.guyazhou.plugin.reviewboard.setting.ReviewBoardSetting;
+import com.guyazhou.plugin.reviewboard.vcsprovider.DiffGroup;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.IdeBorderFactory;
 import com.intellij.ui.TextFieldWithStoredHistory;
 import com.intellij.util.ui.ComboBoxWithHistory;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import java.awt.*;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Submit form
@@ -34,6 +39,10 @@ public class SubmitDialogForm extends DialogWrapper {
     private JTextArea descriptionArea;
     private JCheckBox chxDraft;
 
+    private List<DiffGroup> diffGroups = Collections.emptyList();
+    private Repository[] groupRepositories;
+    private JCheckBox separateRequestsCheckBox;
+
     private void createUIComponents() {
         summaryField = new TextFieldWithStoredHistory("reviewboard.summary");
         groupsFiled = new TextFieldWithStoredHistory("reviewboard.groups");
@@ -63,7 +72,18 @@ public class SubmitDialogForm extends DialogWrapper {
     }
 
     protected SubmitDialogForm(@Nullable Project project, Repository[] repositories, int possibleRepositoryIndex) {
+        this(project, repositories, possibleRepositoryIndex, Collections.emptyList(), new Repository[0]);
+    }
+
+    /**
+     * @param diffGroups        selected files grouped by working copy, listed in the dialog if more than one
+     * @param groupRepositories repository matched for each group, null if not matched
+     */
+    protected SubmitDialogForm(@Nullable Project project, Repository[] repositories, int possibleRepositoryIndex,
+                               List<DiffGroup> diffGroups, Repository[] groupRepositories) {
         super(project);
+        this.diffGroups = diffGroups;
+        this.groupRepositories = groupRepositories;
         System.out.println(descriptionHistory.getSelectedIndex());
         // initialize
         this.setTitle("Submit Review Request");
@@ -132,11 +152,53 @@ public class SubmitDialogForm extends DialogWrapper {
         loadReviewInfoButton.setEnabled(false);
     }
 
+    /**
+     * List the working copies below the form, with the choice of one review request per working copy
+     *
+     * @return working copy panel
+     */
+    private JComponent createDiffGroupPanel() {
+        JPanel diffGroupPanel = new JPanel();
+        diffGroupPanel.setLayout(new BoxLayout(diffGroupPanel, BoxLayout.Y_AXIS));
+        diffGroupPanel.setBorder(IdeBorderFactory.createTitledBorder("Working Copies"));
+        for (int i = 0; i < diffGroups.size(); i++) {
+            DiffGroup diffGroup = diffGroups.get(i);
+            Repository repository = 0 == i ? null : groupRepositories[i];
+            diffGroupPanel.add(new JLabel(String.format("%s : %s file(s), %s%s -> %s", diffGroup.getName(), diffGroup.getFileCount(),
+                    diffGroup.getRepositoryURL(), diffGroup.getWorkingCopyPathInRepository(),
+                    null == repository ? "selected repository" : repository.getName())));
+        }
+        separateRequestsCheckBox = new JCheckBox("One review request per working copy");
+        if (!isCombinable()) {
+            // one review request holds the diff of one repository only
+            separateRequestsCheckBox.setSelected(true);
+            separateRequestsCheckBox.setEnabled(false);
+            separateRequestsCheckBox.setToolTipText("Working copies belong to different repositories");
+        }
+        diffGroupPanel.add(separateRequestsCheckBox);
+        return diffGroupPanel;
+    }
+
+    private boolean isCombinable() {
+        for (DiffGroup diffGroup : diffGroups) {
+            if (!diffGroup.getRepositoryURL().equals(diffGroups.get(0).getRepositoryURL())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /************ Implement from DialogWrapper ************/
     @Nullable
     @Override
     protected JComponent createCenterPanel() {
-        return submitPanel;
+        if (diffGroups.size() < 2) {
+            return submitPanel;
+        }
+        JPanel centerPanel = new JPanel(new BorderLayout());
+        centerPanel.add(submitPanel, BorderLayout.CENTER);
+        centerPanel.add(createDiffGroupPanel(), BorderLayout.SOUTH);
+        return centerPanel;
     }
 
     @Override
@@ -147,6 +209,9 @@ public class SubmitDialogForm extends DialogWrapper {
                 existReviewIdField.grabFocus();
                 throw new InvalidArgumentException("Exist reviewId is empty");
             }
+            if (isSeparateRequests()) {
+                throw new InvalidArgumentException("Exist review request can not take one review request per working copy");
+            }
         }
         if (null == getSummary() || "".equals(getSummary())) {
             summaryField.grabFocus();
@@ -215,6 +280,28 @@ public class SubmitDialogForm extends DialogWrapper {
         return chxDraft.isSelected();
     }
 
+    /**
+     * Is one review request per working copy
+     *
+     * @return true if the working copies are submitted separately
+     */
+    public boolean isSeparateRequests() {
+        return null != separateRequestsCheckBox && separateRequestsCheckBox.isSelected();
+    }
+
+    /**
+     * Get repository id of a working copy submitted separately, the selected one unless another is matched
+     *
+     * @param groupIndex index of the working copy
+     * @return repository id
+     */
+    public int getRepositoryId(int groupIndex) {
+        if (0 < groupIndex && groupIndex < groupRepositories.length && null != groupRepositories[groupIndex]) {
+            return groupRepositories[groupIndex].getId();
+        }
+        return getSelectedRepositoryId();
+    }
+
     public int getSelectedRepositoryId() {
         if (repositoryBox.getSelectedItem() != null) {
             return ((RepositoryComboBoxItem) repositoryBox.getSelectedItem()).getRepository().getId();
@@ -0,0 +1,75 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Aborts the http requests of a call, so cancelling the call closes its connections instead of waiting for the server.
+ * Requests executed by the thread running the call are registered with it, aborting a finished request does nothing.
+ */
+public class AbortHandle {
+
+    private static final ThreadLocal<AbortHandle> CURRENT = new ThreadLocal<>();
+
+    private final Set<HttpUriRequest> requests = ConcurrentHashMap.newKeySet();
+    private volatile boolean aborted;
+
+    /**
+     * Get the handle of the call the current thread is running
+     *
+     * @return handle, null if the thread runs no abortable call
+     */
+    public static AbortHandle current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Run a call with this handle, the requests it executes on the current thread can be aborted
+     *
+     * @param call blocking call
+     * @return call result
+     */
+    public <T> T run(Supplier<T> call) {
+        AbortHandle previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.get();
+        } finally {
+            if (null == previous) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Abort the requests in flight and any request the call executes later
+     */
+    public void abort() {
+        aborted = true;
+        for (HttpUriRequest request : requests) {
+            request.abort();
+        }
+    }
+
+    /**
+     * Register a request with the handle of the current thread, before it is executed
+     *
+     * @param request http request
+     */
+    static void register(HttpUriRequest request) {
+        AbortHandle abortHandle = CURRENT.get();
+        if (null == abortHandle) {
+            return;
+        }
+        abortHandle.requests.add(request);
+        if (abortHandle.aborted) {
+            request.abort();    // the transport refuses to execute an aborted request
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Future of a blocking call run on an executor, cancelling it aborts the http requests of the call.
+ * The future is done as soon as it is cancelled while the call may run on until it notices,
+ * wait for termination before releasing what the call reads.
+ */
+public class AbortableFuture<T> extends CompletableFuture<T> {
+
+    private final AbortHandle abortHandle = new AbortHandle();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    /**
+     * Run a blocking call on an executor
+     *
+     * @param call     blocking call
+     * @param executor executor
+     * @return future of the call result
+     */
+    public static <T> AbortableFuture<T> supplyAsync(Supplier<T> call, Executor executor) {
+        AbortableFuture<T> future = new AbortableFuture<>();
+        try {
+            executor.execute(() -> future.run(call));
+        } catch (RejectedExecutionException e) {
+            future.terminated.countDown();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void run(Supplier<T> call) {
+        try {
+            if (!this.isDone()) {   // cancelled before it started
+                this.complete(abortHandle.run(call));
+            }
+        } catch (Throwable e) {
+            this.completeExceptionally(e);
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            abortHandle.abort();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Wait until the call is no longer running
+     *
+     * @param timeout timeout
+     * @param unit    unit of the timeout
+     * @return true if the call terminated, false if it is still running after the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Response entity decoded from gzip or deflate while it is read.
+ * Bytes are counted as they come off the wire and after decoding.
+ */
+class ContentDecodingEntity extends HttpEntityWrapper {
+
+    private final String encoding;
+    private final AtomicLong receivedBytes;
+    private final AtomicLong decodedBytes;
+    private InputStream content;
+
+    /**
+     * @param wrappedEntity response entity as received
+     * @param receivedBytes counter of bytes on the wire
+     * @param decodedBytes  counter of bytes after decoding
+     */
+    ContentDecodingEntity(HttpEntity wrappedEntity, AtomicLong receivedBytes, AtomicLong decodedBytes) {
+        super(wrappedEntity);
+        this.encoding = getEncoding(wrappedEntity);
+        this.receivedBytes = receivedBytes;
+        this.decodedBytes = decodedBytes;
+    }
+
+    /**
+     * Get the content encoding this entity is able to decode
+     *
+     * @param entity response entity
+     * @return gzip or deflate, null if not encoded or encoded otherwise
+     */
+    static String getEncoding(HttpEntity entity) {
+        Header contentEncoding = entity.getContentEncoding();
+        if (null == contentEncoding) {
+            return null;
+        }
+        String encoding = contentEncoding.getValue().trim().toLowerCase(Locale.ROOT);
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            return "gzip";
+        }
+        if ("deflate".equals(encoding)) {
+            return "deflate";
+        }
+        return null;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if (null == content) {
+            InputStream received = new CountingInputStream(wrappedEntity.getContent(), receivedBytes);
+            InputStream decoded;
+            if ("gzip".equals(encoding)) {
+                decoded = new GZIPInputStream(received, ContentSource.BUFFER_SIZE);
+            } else if ("deflate".equals(encoding)) {
+                decoded = new DeflateInputStream(received);     // zlib wrapped or raw, servers send both
+            } else {
+                decoded = received;
+            }
+            content = new CountingInputStream(decoded, decodedBytes);
+        }
+        return content;
+    }
+
+    @Override
+    public long getContentLength() {
+        return null == encoding ? wrappedEntity.getContentLength() : -1;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return null == encoding ? wrappedEntity.getContentEncoding() : null;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        try (InputStream inputStream = this.getContent()) {
+            byte[] buffer = new byte[ContentSource.BUFFER_SIZE];
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                outStream.write(buffer, 0, n);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Source of a request body part, written straight onto the connection without being held in memory as a whole
+ */
+public interface ContentSource {
+
+    int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Write the content to the output stream
+     *
+     * @param outputStream output stream
+     * @throws IOException if reading the source or writing the stream fails
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * Get the content length in bytes
+     *
+     * @return length, or -1 if unknown before writing
+     */
+    default long getLength() {
+        return -1;
+    }
+
+    /**
+     * Content from a string
+     *
+     * @param content content
+     * @param charset charset
+     * @return content source
+     */
+    static ContentSource fromString(String content, Charset charset) {
+        byte[] bytes = content.getBytes(charset);
+        return new ContentSource() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write(bytes);
+            }
+
+            @Override
+            public long getLength() {
+                return bytes.length;
+            }
+        };
+    }
+
+    /**
+     * Content from a file, read with a bounded buffer
+     *
+     * @param path file path
+     * @return content source
+     */
+    static ContentSource fromPath(Path path) {
+        return new ContentSource() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                Files.copy(path, outputStream);
+            }
+
+            @Override
+            public long getLength() {
+                try {
+                    return Files.size(path);
+                } catch (IOException e) {
+                    return -1;
+                }
+            }
+        };
+    }
+
+    /**
+     * Content from an input stream, a new stream is opened for every write
+     *
+     * @param inputStreamSupplier opens the input stream
+     * @return content source
+     */
+    static ContentSource fromInputStream(InputStreamSupplier inputStreamSupplier) {
+        return outputStream -> {
+            try (InputStream inputStream = inputStreamSupplier.open()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+            }
+        };
+    }
+
+    /**
+     * Content produced by writing characters, e.g. a diff writer
+     *
+     * @param writerCallback writes the content
+     * @return content source
+     */
+    static ContentSource fromWriter(WriterCallback writerCallback) {
+        return outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new NonClosingOutputStream(outputStream), StandardCharsets.UTF_8), BUFFER_SIZE);
+            writerCallback.writeTo(writer);
+            writer.close();    // flush encoder, the underlying stream is left open
+        };
+    }
+
+    /**
+     * Content of several sources one after another
+     *
+     * @param contentSources sources in order
+     * @return content source
+     */
+    static ContentSource concat(List<? extends ContentSource> contentSources) {
+        return new ContentSource() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                for (ContentSource contentSource : contentSources) {
+                    contentSource.writeTo(outputStream);
+                }
+            }
+
+            @Override
+            public long getLength() {
+                long length = 0;
+                for (ContentSource contentSource : contentSources) {
+                    long sourceLength = contentSource.getLength();
+                    if (sourceLength < 0) {
+                        return -1;
+                    }
+                    length += sourceLength;
+                }
+                return length;
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface InputStreamSupplier {
+        InputStream open() throws IOException;
+    }
+
+    @FunctionalInterface
+    interface WriterCallback {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Keep the connection stream open when a part writer is closed
+     */
+    class NonClosingOutputStream extends OutputStream {
+
+        private final OutputStream outputStream;
+
+        NonClosingOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            outputStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.flush();
+        }
+    }
+
+}
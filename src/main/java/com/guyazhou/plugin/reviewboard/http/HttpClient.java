@@ -1,26 +1,41 @@
 package com.guyazhou.plugin.reviewboard.http;
 
-import cn.hutool.http.ContentType;
-import cn.hutool.http.HttpRequest;
-import cn.hutool.http.HttpResponse;
+import com.guyazhou.plugin.reviewboard.exceptions.HttpStatusException;
 import com.guyazhou.plugin.reviewboard.model.DiffVirtualFile;
-
-import java.io.*;
-import java.net.*;
+import com.guyazhou.plugin.reviewboard.setting.ReviewBoardSetting;
+import com.guyazhou.plugin.reviewboard.utils.JsonUtil;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
- * HttpClient
+ * HttpClient, responses are parsed from the connection stream straight into model objects
  *
  * @author YaZhou.Gu 2017/1/2
  */
 public class HttpClient {
 
-    private static final String MULTI_PART_BOUNDARY = "---------MULTIPART";
+    private static final String DIFF_CONTENT_TYPE = "text/x-patch";
     private Map<String, String> headers;
 
     public HttpClient() {
@@ -31,225 +46,173 @@ public class HttpClient {
     }
 
     /**
-     * Build a HttpURLConnection instance by url string and reuest method
+     * Execute a request through the transport of the server and parse the response
      *
-     * @param urlStr url string
-     * @param method request method
-     * @return a HttpURLConnection instance
+     * @param request      http request
+     * @param responseType response type
+     * @return response object
      */
-    private HttpURLConnection buildHttpURLConnection(String urlStr, HTTP_METHOD method) {
-        URL url;
-        try {
-            url = new URL(urlStr);
-        } catch (MalformedURLException e) {
-            throw new RuntimeException("UrlStr is not format properly" + e.getMessage());
-        }
-
-        URLConnection urlConnection;
-        try {
-            urlConnection = url.openConnection();
-        } catch (IOException e) {
-            throw new RuntimeException("Open url connection error" + e.getMessage());
-        }
-
-        if (HTTP_METHOD.POST == method || HTTP_METHOD.PUT == method) {
-            urlConnection.setDoOutput(true);    // default: false, set true make it possible to get a output stream
-        }
-
-        HttpURLConnection httpURLConnection = (HttpURLConnection) urlConnection;
-        try {
-            httpURLConnection.setRequestMethod(method.toString());
-        } catch (ProtocolException e) {
-            throw new RuntimeException("Set http url connection method error" + e.getMessage());
-        }
-
-        // set headers
-        if (null != headers) {
-            for (Map.Entry<String, String> entry : headers.entrySet()) {
-                httpURLConnection.setRequestProperty(entry.getKey(), entry.getValue());
-            }
-        }
-        return httpURLConnection;
+    private <T> T execute(HttpUriRequest request, Class<T> responseType) {
+        return this.executeForResult(request, responseType).getBody();
     }
 
     /**
-     * Build response message from inputstream
+     * Execute a request through the transport of the server and build http result
      *
-     * @param httpURLConnection HttpURLConnection instance
-     * @return response message
+     * @param request      http request
+     * @param responseType response type
+     * @return http result
      */
-    private String buildResponseMessage(HttpURLConnection httpURLConnection) {
-        InputStream inputStream;
-        try {
-            inputStream = httpURLConnection.getInputStream();
-        } catch (IOException e) {
-            throw new RuntimeException("Get inputstram from connection error, " + e.getMessage());
+    private <T> HttpResult<T> executeForResult(HttpUriRequest request, Class<T> responseType) {
+        // set headers
+        if (null != headers) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                request.setHeader(entry.getKey(), entry.getValue());
+            }
         }
-        StringBuilder responseMessageBuilder = new StringBuilder();
-        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-        String line;
-        try {
-            while ((line = bufferedReader.readLine()) != null) {
-                responseMessageBuilder.append(line);
+        HttpTransport httpTransport = HttpTransportManager.getInstance().getTransport(request.getURI());
+        try (CloseableHttpResponse httpResponse = httpTransport.execute(request)) {
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            HttpEntity entity = httpResponse.getEntity();
+            if (statusCode >= 400) {
+                EntityUtils.consumeQuietly(entity);     // release connection back to pool
+                throw new HttpStatusException(statusCode, String.format("Server returned HTTP response code: %s for URL: %s", statusCode, request.getURI()));
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Get message from inputstream error" + e.getMessage());
-        } finally {
-            try {
-                bufferedReader.close();
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            T body = null;
+            if (null != entity) {
+                try (InputStream inputStream = entity.getContent()) {   // closing drains the rest, connection goes back to pool
+                    body = JsonUtil.fromJson(inputStream, responseType);
+                }
             }
+            return new HttpResult<>(statusCode, body, getHeaderValue(httpResponse, HttpHeaders.ETAG), getHeaderValue(httpResponse, HttpHeaders.LAST_MODIFIED));
+        } catch (IOException e) {
+            throw new RuntimeException("Get message from server error, " + e.getMessage());
         }
-        return responseMessageBuilder.toString();
+    }
+
+    private static String getHeaderValue(HttpResponse httpResponse, String name) {
+        Header header = httpResponse.getFirstHeader(name);
+        return null == header ? null : header.getValue();
     }
 
     /**
      * Request a GET http request
      *
-     * @param urlStr url
-     * @return response messages
+     * @param urlStr       url
+     * @param responseType response type
+     * @return response object
      */
-    public String get(String urlStr) {
-        HttpURLConnection httpURLConnection = this.buildHttpURLConnection(urlStr, HTTP_METHOD.GET);
-        // redirect automaticly
-        httpURLConnection.setInstanceFollowRedirects(false);
+    public <T> T get(String urlStr, Class<T> responseType) {
+        return this.execute(new HttpGet(urlStr), responseType);
+    }
 
-        return this.buildResponseMessage(httpURLConnection);
+    /**
+     * Request a conditional GET http request, server responds 304 if content is not changed since the validators
+     *
+     * @param urlStr       url
+     * @param eTag         ETag of the cached content, nullable
+     * @param lastModified Last-Modified of the cached content, nullable
+     * @param responseType response type
+     * @return http result, body is null if not modified
+     */
+    public <T> HttpResult<T> getConditionally(String urlStr, String eTag, String lastModified, Class<T> responseType) {
+        HttpGet httpGet = new HttpGet(urlStr);
+        if (null != eTag) {
+            httpGet.setHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+        }
+        if (null != lastModified) {
+            httpGet.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+        return this.executeForResult(httpGet, responseType);
     }
 
     /**
      * Post a request to server
      *
-     * @param urlStr server url
-     * @param params params
-     * @return response message
+     * @param urlStr       server url
+     * @param params       params
+     * @param responseType response type
+     * @return response object
      */
-    public String post(String urlStr, Map<String, Object> params) {
-        return this.post(urlStr, params, false);
+    public <T> T post(String urlStr, Map<String, Object> params, Class<T> responseType) {
+        return this.post(urlStr, params, false, responseType);
     }
 
     /**
      * Post a request to server with files
      *
-     * @param urlStr      server url
-     * @param params      params
-     * @param isMultiPart post files if true, default false
-     * @return response string
+     * @param urlStr       server url
+     * @param params       params
+     * @param isMultiPart  post files if true, default false
+     * @param responseType response type
+     * @return response object
      */
-    public String post(String urlStr, Map<String, Object> params, boolean isMultiPart) {
+    public <T> T post(String urlStr, Map<String, Object> params, boolean isMultiPart, Class<T> responseType) {
         if (isMultiPart) {
             try {
-                return this.postWithMultiplePart(urlStr, params);
+                return this.postWithMultiplePart(urlStr, params, responseType);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         } else {
-            return this.requestSimply(urlStr, HTTP_METHOD.POST, params);
+            return this.requestSimply(new HttpPost(urlStr), params, responseType);
         }
     }
 
-    public String put(String urlStr, Map<String, Object> params) {
+    public <T> T put(String urlStr, Map<String, Object> params, Class<T> responseType) {
         if (null == urlStr || "".equals(urlStr) || null == params) {
             throw new RuntimeException("Url is empty or paramas is null");
         }
         if (0 == params.size()) {
             return null;
         }
-        return this.requestSimply(urlStr, HTTP_METHOD.PUT, params);
+        return this.requestSimply(new HttpPut(urlStr), params, responseType);
     }
 
-    public String delete(String urlStr, Map<String, Object> params) {
+    public <T> T delete(String urlStr, Map<String, Object> params, Class<T> responseType) {
         return null;
     }
 
-    private String requestSimply(String urlStr, HTTP_METHOD method, Map<String, Object> params) {
-
-        HttpURLConnection httpURLConnection = this.buildHttpURLConnection(urlStr, method);
-        try {
-            httpURLConnection.setRequestMethod(method.toString());
-        } catch (ProtocolException e) {
-            throw new RuntimeException(e);
-        }
-
-        httpURLConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");  // TODO refactor
-
-        OutputStream outputStream;
-        try {
-            outputStream = httpURLConnection.getOutputStream();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        String postBody = "";
+    private <T> T requestSimply(HttpEntityEnclosingRequestBase request, Map<String, Object> params, Class<T> responseType) {
+        List<NameValuePair> nameValuePairs = new ArrayList<>();
         for (Map.Entry<String, Object> entry : params.entrySet()) {
-            if (!"".equals(postBody)) {
-                postBody = postBody.concat("&" + entry.getKey() + "=" + String.valueOf(entry.getValue()));
-            } else {
-                postBody = entry.getKey() + "=" + String.valueOf(entry.getValue());
-            }
-        }
-        try {
-            outputStream.write(postBody.getBytes("UTF-8"));
-            outputStream.flush();
-            outputStream.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            nameValuePairs.add(new BasicNameValuePair(entry.getKey(), String.valueOf(entry.getValue())));
         }
-        return this.buildResponseMessage(httpURLConnection);
+        request.setEntity(new UrlEncodedFormEntity(nameValuePairs, StandardCharsets.UTF_8));
+        return this.execute(request, responseType);
     }
 
     /**
-     * Post a http request with multiple part
+     * Post a http request with multiple part, file parts are streamed from their source
      *
-     * @param urlStr url string
-     * @param params http parmas
-     * @return response message
+     * @param urlStr       url string
+     * @param params       http parmas
+     * @param responseType response type
+     * @return response object
      */
-    private String postWithMultiplePart(String urlStr, Map<String, Object> params) throws IOException {
-
-        HTTP_METHOD method = HTTP_METHOD.POST;
-        HttpURLConnection httpURLConnection = this.buildHttpURLConnection(urlStr, method);
-        try {
-            httpURLConnection.setRequestMethod(method.toString());
-        } catch (ProtocolException e) {
-            throw new RuntimeException(e);
-        }
-
-        HashMap<String, Object> paramMap = new HashMap<>();
-        File file = null;
-
-        Properties props = System.getProperties();
-        String userHome = props.getProperty("user.home");
-        String month = String.valueOf(Calendar.getInstance().get(Calendar.MONTH));
-        String tmpDir = userHome + "/.reviewboard/" + month;
-        if (!Files.exists(Paths.get(tmpDir))) {
-            new File(tmpDir).mkdirs();
-        }
+    private <T> T postWithMultiplePart(String urlStr, Map<String, Object> params, Class<T> responseType) throws IOException {
+        MultipartEntity multipartEntity = new MultipartEntity();
         for (Map.Entry<String, Object> entry : params.entrySet()) {
-            if (entry.getValue() instanceof File) {
-                file = (File) entry.getValue();
-            } else if (entry.getValue() instanceof DiffVirtualFile) {
-                DiffVirtualFile vfile = (DiffVirtualFile) entry.getValue();
-                Path fpath = Paths.get(tmpDir + "/" + UUID.randomUUID() + ".diff");
-                BufferedWriter bfw = Files.newBufferedWriter(fpath, StandardCharsets.UTF_8);
-                bfw.write(vfile.getContent());
-                bfw.flush();
-                bfw.close();
-                file = fpath.toFile();
+            Object value = entry.getValue();
+            if (value instanceof File) {
+                File file = (File) value;
+                multipartEntity.addFilePart(entry.getKey(), file.getName(), DIFF_CONTENT_TYPE, ContentSource.fromPath(file.toPath()));
+            } else if (value instanceof DiffVirtualFile) {
+                DiffVirtualFile diffVirtualFile = (DiffVirtualFile) value;
+                multipartEntity.addFilePart(entry.getKey(), diffVirtualFile.getName(), DIFF_CONTENT_TYPE, diffVirtualFile.getSource());
             } else {
-                paramMap.put(entry.getKey(), entry.getValue().toString());
+                multipartEntity.addTextPart(entry.getKey(), String.valueOf(value));
             }
         }
-        paramMap.put("path", file);
 
-        HttpResponse res = HttpRequest.post(urlStr)
-                .header("Content-Type", ContentType.MULTIPART.toString())
-                .addHeaders(this.headers)
-                .form(paramMap)
-                .execute();
+        HttpPost httpPost = new HttpPost(urlStr);
+        httpPost.setEntity(isCompressDiffUpload() ? new GzipCompressingEntity(multipartEntity) : multipartEntity);
+        return this.execute(httpPost, responseType);
+    }
 
-        return res.body();
+    private static boolean isCompressDiffUpload() {
+        ReviewBoardSetting.State state = ReviewBoardSetting.getInstance().getState();
+        return null != state && state.isCompressDiffUpload();
     }
 
 }
@@ -0,0 +1,45 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+/**
+ * Http result with the status and the cache validators of the response, body is parsed already
+ */
+public class HttpResult<T> {
+
+    private final int statusCode;
+    private final T body;
+    private final String eTag;
+    private final String lastModified;
+
+    public HttpResult(int statusCode, T body, String eTag, String lastModified) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public T getBody() {
+        return body;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Is the cached content still valid
+     *
+     * @return true if server responds 304
+     */
+    public boolean isNotModified() {
+        return 304 == statusCode;
+    }
+
+}
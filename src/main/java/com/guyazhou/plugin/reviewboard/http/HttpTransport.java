@@ -0,0 +1,59 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Http transport, one instance is shared by all requests to the same review board server
+ */
+public interface HttpTransport extends Closeable {
+
+    /**
+     * Execute a request, the caller must consume the entity and close the response,
+     * so that the underlying connection can go back to the pool
+     *
+     * @param request http request
+     * @return http response
+     * @throws IOException if the request fails
+     */
+    CloseableHttpResponse execute(HttpUriRequest request) throws IOException;
+
+    /**
+     * Get the connections currently open, both leased and idle in the pool
+     *
+     * @return open connections num
+     */
+    int getOpenConnections();
+
+    /**
+     * Get the requests executed by this transport
+     *
+     * @return requests num
+     */
+    long getRequestCount();
+
+    /**
+     * Get the requests which were sent over an already open (kept alive) connection
+     *
+     * @return reused requests num
+     */
+    long getReusedConnectionCount();
+
+    /**
+     * Get the response body bytes as they came over the wire, compressed if the server compressed them
+     *
+     * @return received bytes
+     */
+    long getReceivedBytes();
+
+    /**
+     * Get the response body bytes after decompression
+     *
+     * @return decoded bytes
+     */
+    long getDecodedBytes();
+
+}
@@ -0,0 +1,96 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import com.guyazhou.plugin.reviewboard.setting.ReviewBoardSetting;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keep one http transport per review board server
+ */
+public class HttpTransportManager implements Disposable {
+
+    private final Logger log = LoggerFactory.getLogger(HttpTransportManager.class);
+
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+    private static final int DEFAULT_CONNECTION_IDLE_TIMEOUT = 60;
+
+    private final Map<String, HttpTransport> transports = new ConcurrentHashMap<>();
+
+    public static HttpTransportManager getInstance() {
+        return ApplicationManager.getApplication().getService(HttpTransportManager.class);
+    }
+
+    /**
+     * Get the transport of the server the uri points to, create one if absent
+     *
+     * @param uri request uri
+     * @return http transport
+     */
+    public HttpTransport getTransport(URI uri) {
+        return transports.computeIfAbsent(getServerKey(uri), serverKey -> this.createTransport());
+    }
+
+    /**
+     * Plug in a transport for a server, the previous one is closed
+     *
+     * @param serverURL review board server url
+     * @param transport http transport
+     */
+    public void registerTransport(String serverURL, HttpTransport transport) {
+        HttpTransport previous = transports.put(getServerKey(URI.create(serverURL)), transport);
+        closeQuietly(previous);
+    }
+
+    /**
+     * Close all transports, they will be recreated with current settings on next request
+     */
+    public void reset() {
+        for (String serverKey : transports.keySet()) {
+            closeQuietly(transports.remove(serverKey));
+        }
+    }
+
+    private HttpTransport createTransport() {
+        int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        int connectionIdleTimeout = DEFAULT_CONNECTION_IDLE_TIMEOUT;
+        ReviewBoardSetting.State state = ReviewBoardSetting.getInstance().getState();
+        if (null != state) {
+            if (state.getMaxConnectionsPerRoute() > 0) {
+                maxConnectionsPerRoute = state.getMaxConnectionsPerRoute();
+            }
+            if (state.getConnectionIdleTimeout() > 0) {
+                connectionIdleTimeout = state.getConnectionIdleTimeout();
+            }
+        }
+        return new PooledHttpTransport(maxConnectionsPerRoute, connectionIdleTimeout);
+    }
+
+    private static String getServerKey(URI uri) {
+        return String.format("%s://%s:%s", uri.getScheme(), uri.getHost(), uri.getPort());
+    }
+
+    private void closeQuietly(HttpTransport transport) {
+        if (null == transport) {
+            return;
+        }
+        log.info("Closing " + transport);
+        try {
+            transport.close();
+        } catch (IOException e) {
+            log.warn("Close http transport error", e);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        reset();
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicNameValuePair;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Multipart/form-data entity which streams every part from its source onto the connection.
+ * Content length is sent when all part lengths are known, otherwise the body goes chunked.
+ */
+public class MultipartEntity extends AbstractHttpEntity {
+
+    private static final String MULTI_PART_BOUNDARY = "---------MULTIPART";
+    private static final String LINE_FEED = "\r\n";
+
+    private final String boundary;
+    private final List<Part> parts = new ArrayList<>();
+
+    public MultipartEntity() {
+        this.boundary = MULTI_PART_BOUNDARY + UUID.randomUUID().toString().replace("-", "");
+        setContentType(ContentType.create("multipart/form-data").withParameters(new BasicNameValuePair("boundary", boundary)).toString());
+    }
+
+    /**
+     * Add a text field
+     *
+     * @param name  field name
+     * @param value field value
+     * @return this
+     */
+    public MultipartEntity addTextPart(String name, String value) {
+        String header = String.format("Content-Disposition: form-data; name=\"%s\"", name);
+        parts.add(new Part(header, ContentSource.fromString(value, StandardCharsets.UTF_8)));
+        return this;
+    }
+
+    /**
+     * Add a file field
+     *
+     * @param name        field name
+     * @param fileName    file name
+     * @param contentType content type of the file
+     * @param source      file content
+     * @return this
+     */
+    public MultipartEntity addFilePart(String name, String fileName, String contentType, ContentSource source) {
+        String header = String.format("Content-Disposition: form-data; name=\"%s\"; filename=\"%s\"", name, fileName)
+                + LINE_FEED + "Content-Type: " + contentType;
+        parts.add(new Part(header, source));
+        return this;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return getContentLength() < 0;
+    }
+
+    @Override
+    public long getContentLength() {
+        long contentLength = 0;
+        for (Part part : parts) {
+            long partLength = part.source.getLength();
+            if (partLength < 0) {
+                return -1;
+            }
+            contentLength += part.getHeaderBytes().length + partLength + LINE_FEED.length();
+        }
+        return contentLength + getClosingBytes().length;
+    }
+
+    /**
+     * Replay the body into a spooled buffer for consumers which read the entity, e.g. logging or retry.
+     * The upload itself goes through writeTo and never spools.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        SpooledContentSource spooledContentSource = new SpooledContentSource();
+        try (OutputStream outputStream = spooledContentSource.openOutputStream()) {
+            this.writeTo(outputStream);
+        } catch (IOException | RuntimeException e) {
+            spooledContentSource.close();
+            throw e;
+        }
+        return new FilterInputStream(spooledContentSource.openInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    spooledContentSource.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        for (Part part : parts) {
+            outputStream.write(part.getHeaderBytes());
+            part.source.writeTo(outputStream);
+            outputStream.write(LINE_FEED.getBytes(StandardCharsets.UTF_8));
+        }
+        outputStream.write(getClosingBytes());
+        outputStream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private byte[] getClosingBytes() {
+        return ("--" + boundary + "--" + LINE_FEED).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private class Part {
+
+        private final String header;
+        private final ContentSource source;
+
+        private Part(String header, ContentSource source) {
+            this.header = header;
+            this.source = source;
+        }
+
+        private byte[] getHeaderBytes() {
+            return ("--" + boundary + LINE_FEED + header + LINE_FEED + LINE_FEED).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import java.io.IOException;
+import java.net.ProxySelector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Http transport based on a pool of keep-alive connections
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong reusedConnectionCount = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /**
+     * @param maxConnectionsPerRoute max connections to one route (server or proxy)
+     * @param idleTimeoutSeconds     idle connections older than this are evicted from the pool
+     */
+    public PooledHttpTransport(int maxConnectionsPerRoute, int idleTimeoutSeconds) {
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                .build();
+        this.connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        this.connectionManager.setMaxTotal(maxConnectionsPerRoute * 2);  // direct route plus proxy route
+        this.connectionManager.setValidateAfterInactivity(2000);
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))    // honor IDE proxy settings
+                .setRequestExecutor(new ReuseCountingRequestExecutor())
+                .disableContentCompression()    // replaced by the counting decoder below
+                .addInterceptorLast(ACCEPT_ENCODING)
+                .addInterceptorLast(this.contentDecoder())
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS)
+                .disableCookieManagement()  // cookies are per account, set by caller
+                .disableRedirectHandling()
+                .build();
+    }
+
+    @Override
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        AbortHandle.register(request);
+        return httpClient.execute(request);
+    }
+
+    @Override
+    public int getOpenConnections() {
+        PoolStats totalStats = connectionManager.getTotalStats();
+        return totalStats.getLeased() + totalStats.getAvailable();
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public long getReusedConnectionCount() {
+        return reusedConnectionCount.get();
+    }
+
+    @Override
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    @Override
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PooledHttpTransport{open=%s, requests=%s, reused=%s, received=%s, decoded=%s}",
+                getOpenConnections(), getRequestCount(), getReusedConnectionCount(), getReceivedBytes(), getDecodedBytes());
+    }
+
+    /**
+     * Ask for a compressed response, review board json shrinks several times
+     */
+    private static final HttpRequestInterceptor ACCEPT_ENCODING = (request, context) -> {
+        if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+            request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        }
+    };
+
+    /**
+     * Decode compressed response bodies while they are streamed, counting bytes before and after decoding
+     *
+     * @return response interceptor
+     */
+    private HttpResponseInterceptor contentDecoder() {
+        return (response, context) -> {
+            HttpEntity entity = response.getEntity();
+            if (null == entity || 0 == entity.getContentLength()) {
+                return;
+            }
+            response.setEntity(new ContentDecodingEntity(entity, receivedBytes, decodedBytes));
+            if (null != ContentDecodingEntity.getEncoding(entity)) {
+                // headers describe the encoded body, not what the caller reads
+                response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+                response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+                response.removeHeaders(HttpHeaders.CONTENT_MD5);
+            }
+        };
+    }
+
+    /**
+     * Count requests sent over a connection which already served some requests before
+     */
+    private class ReuseCountingRequestExecutor extends HttpRequestExecutor {
+
+        @Override
+        protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection connection, HttpContext context)
+                throws IOException, HttpException {
+            requestCount.incrementAndGet();
+            if (connection.getMetrics().getRequestCount() > 0) {
+                reusedConnectionCount.incrementAndGet();
+            }
+            return super.doSendRequest(request, connection, context);
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import com.intellij.openapi.application.PathManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+/**
+ * Content written once and replayed any number of times, e.g. a generated diff which is fingerprinted and then uploaded.
+ * Held in memory up to a threshold, spilled to a temp file beyond it. Close it to delete the temp file,
+ * files left by a crash are swept when the first source of a session spills.
+ */
+public class SpooledContentSource implements ContentSource, Closeable {
+
+    public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(SpooledContentSource.class);
+
+    private final int threshold;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream(BUFFER_SIZE);
+    private Path file;
+    private long length;
+    private boolean opened;
+    private boolean sealed;
+
+    public SpooledContentSource() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold bytes kept in memory before spilling to disk
+     */
+    public SpooledContentSource(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Open the stream the content is written to, the content can be read once the stream is closed
+     *
+     * @return output stream
+     */
+    public synchronized OutputStream openOutputStream() {
+        if (opened) {
+            throw new IllegalStateException("Spooled content is written already");
+        }
+        opened = true;
+        return new SpoolOutputStream();
+    }
+
+    /**
+     * Open an utf-8 writer the content is written with
+     *
+     * @return writer
+     */
+    public Writer openWriter() {
+        return new BufferedWriter(new OutputStreamWriter(this.openOutputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized void writeTo(OutputStream outputStream) throws IOException {
+        if (!sealed) {
+            throw new IllegalStateException("Spooled content is not written yet");
+        }
+        if (null != file) {
+            Files.copy(file, outputStream);
+        } else if (null != memory) {
+            memory.writeTo(outputStream);
+        } else {
+            throw new IllegalStateException("Spooled content is closed");
+        }
+    }
+
+    /**
+     * Open a stream the content is read from, for consumers which pull instead of being written to
+     *
+     * @return input stream
+     * @throws IOException if opening the temp file fails
+     */
+    public synchronized InputStream openInputStream() throws IOException {
+        if (!sealed) {
+            throw new IllegalStateException("Spooled content is not written yet");
+        }
+        if (null != file) {
+            return Files.newInputStream(file);
+        } else if (null != memory) {
+            return new ByteArrayInputStream(memory.toByteArray());
+        } else {
+            throw new IllegalStateException("Spooled content is closed");
+        }
+    }
+
+    @Override
+    public synchronized long getLength() {
+        return sealed ? length : -1;
+    }
+
+    /**
+     * Check whether the content spilled to disk
+     *
+     * @return true if backed by a temp file
+     */
+    public synchronized boolean isSpilled() {
+        return null != file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        memory = null;
+        if (null != file) {
+            Files.deleteIfExists(file);
+            file = null;
+        }
+    }
+
+    /**
+     * Directory the sources spill to, owned by this IDE. Created and swept once per session, before the first spill,
+     * so whatever is in it was left by an earlier session.
+     */
+    private static class SpillDirectory {
+
+        private static final Path PATH = sweep(Paths.get(PathManager.getSystemPath(), "review-board", "spool"));
+
+        private static Path sweep(Path path) {
+            try {
+                Files.createDirectories(path);
+                try (Stream<Path> files = Files.list(path)) {
+                    files.forEach(file -> {
+                        try {
+                            Files.deleteIfExists(file);
+                        } catch (IOException e) {
+                            log.warn("Delete spooled content left by an earlier session error, " + file, e);
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                log.warn("Sweep spool directory error", e);
+            }
+            return path;
+        }
+    }
+
+    /**
+     * Writes into memory until the threshold is crossed, then moves everything to a temp file
+     */
+    private class SpoolOutputStream extends OutputStream {
+
+        private OutputStream fileStream;
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (SpooledContentSource.this) {
+                if (null == fileStream && memory.size() + len > threshold) {
+                    file = Files.createTempFile(SpillDirectory.PATH, "review-board-", ".diff");
+                    fileStream = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+                    memory.writeTo(fileStream);
+                    memory = null;
+                }
+                if (null != fileStream) {
+                    fileStream.write(b, off, len);
+                } else {
+                    memory.write(b, off, len);
+                }
+                length += len;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (null != fileStream) {
+                fileStream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (SpooledContentSource.this) {
+                if (sealed) {
+                    return;
+                }
+                if (null != fileStream) {
+                    fileStream.close();
+                }
+                sealed = true;
+            }
+        }
+    }
+
+}
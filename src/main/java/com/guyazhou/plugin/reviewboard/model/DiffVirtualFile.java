@@ -1,5 +1,9 @@
 package com.guyazhou.plugin.reviewboard.model;
 
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
+
+import java.nio.charset.StandardCharsets;
+
 /**
  * Diff virtual file
  *
@@ -8,14 +12,18 @@ package com.guyazhou.plugin.reviewboard.model;
 public class DiffVirtualFile {
 
     private String name;
-    private String content;
+    private ContentSource source;
 
     public DiffVirtualFile() {
     }
 
     public DiffVirtualFile(String name, String content) {
+        this(name, ContentSource.fromString(content, StandardCharsets.UTF_8));
+    }
+
+    public DiffVirtualFile(String name, ContentSource source) {
         this.name = name;
-        this.content = content;
+        this.source = source;
     }
 
     public String getName() {
@@ -26,12 +34,12 @@ public class DiffVirtualFile {
         this.name = name;
     }
 
-    public String getContent() {
-        return content;
+    public ContentSource getSource() {
+        return source;
     }
 
-    public void setContent(String content) {
-        this.content = content;
+    public void setSource(ContentSource source) {
+        this.source = source;
     }
 
 }
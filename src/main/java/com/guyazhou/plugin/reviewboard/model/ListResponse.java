@@ -0,0 +1,29 @@
+package com.guyazhou.plugin.reviewboard.model;
+
+/**
+ * Response of a paginated list resource, like /api/repositories/, /api/users/, /api/groups/
+ */
+public interface ListResponse<T> {
+
+    /**
+     * Total items num of the whole list, not only this page
+     *
+     * @return total items num
+     */
+    Integer getTotal_result();
+
+    /**
+     * Items of this page
+     *
+     * @return items
+     */
+    T[] getItems();
+
+    /**
+     * Replace the items, used to merge all pages into the first one
+     *
+     * @param items items
+     */
+    void setItems(T[] items);
+
+}
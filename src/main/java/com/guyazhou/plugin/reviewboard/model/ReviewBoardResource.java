@@ -1,5 +1,11 @@
 package com.guyazhou.plugin.reviewboard.model;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * @author YaZhou.Gu 2018/8/7
  */
@@ -43,4 +49,89 @@ public class ReviewBoardResource {
         return String.format(format, replacements);
     }
 
+    /**
+     * Start a query on a resource url
+     *
+     * @param url resource url
+     * @return query builder
+     */
+    public static Query query(String url) {
+        return new Query(url);
+    }
+
+    /**
+     * Query params understood by every review board api resource.
+     * only-fields and only-links trim the payload on server side, expand folds related resources into one response.
+     */
+    public static class Query {
+
+        private final String url;
+        private final Map<String, String> params = new LinkedHashMap<>();
+
+        private Query(String url) {
+            this.url = url;
+        }
+
+        /**
+         * Only serialize these fields, none if empty
+         *
+         * @param fields field names
+         * @return this
+         */
+        public Query onlyFields(String... fields) {
+            return this.param("only-fields", String.join(",", fields));
+        }
+
+        /**
+         * Only serialize these links, none if empty
+         *
+         * @param links link names
+         * @return this
+         */
+        public Query onlyLinks(String... links) {
+            return this.param("only-links", String.join(",", links));
+        }
+
+        /**
+         * Expand these related resources in place of their links
+         *
+         * @param fields field names
+         * @return this
+         */
+        public Query expand(String... fields) {
+            return this.param("expand", String.join(",", fields));
+        }
+
+        public Query param(String name, Object value) {
+            params.put(name, String.valueOf(value));
+            return this;
+        }
+
+        public String build() {
+            if (params.isEmpty()) {
+                return url;
+            }
+            StringBuilder stringBuilder = new StringBuilder(url);
+            char separator = url.contains("?") ? '&' : '?';
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                stringBuilder.append(separator).append(entry.getKey()).append('=').append(encode(entry.getValue()));
+                separator = '&';
+            }
+            return stringBuilder.toString();
+        }
+
+        private static String encode(String value) {
+            try {
+                return URLEncoder.encode(value, StandardCharsets.UTF_8.name()).replace("%2C", ",");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.build();
+        }
+    }
+
 }
@@ -1,5 +1,7 @@
 package com.guyazhou.plugin.reviewboard.model;
 
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
+
 /**
  * Review post params
  *
@@ -70,7 +72,7 @@ public class ReviewParams {
     /**
      * Diff
      */
-    private String diff;
+    private ContentSource diffSource;
 
     /**
      * RepositoryId
@@ -79,6 +81,11 @@ public class ReviewParams {
 
     private boolean draft;
 
+    /**
+     * Ids of the review requests this one depends on, comma separated
+     */
+    private String dependsOn;
+
     public String getServerURL() {
         return serverURL;
     }
@@ -175,12 +182,12 @@ public class ReviewParams {
         this.svnBasePath = svnBasePath;
     }
 
-    public String getDiff() {
-        return diff;
+    public ContentSource getDiffSource() {
+        return diffSource;
     }
 
-    public void setDiff(String diff) {
-        this.diff = diff;
+    public void setDiffSource(ContentSource diffSource) {
+        this.diffSource = diffSource;
     }
 
     public String getRepositoryId() {
@@ -198,4 +205,12 @@ public class ReviewParams {
     public void setDraft(boolean draft) {
         this.draft = draft;
     }
+
+    public String getDependsOn() {
+        return dependsOn;
+    }
+
+    public void setDependsOn(String dependsOn) {
+        this.dependsOn = dependsOn;
+    }
 }
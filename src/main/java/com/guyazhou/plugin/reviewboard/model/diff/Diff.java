@@ -0,0 +1,27 @@
+package com.guyazhou.plugin.reviewboard.model.diff;
+
+/**
+ * Diff, one revision of the diffs of a review request
+ */
+public class Diff {
+
+    private Integer id;
+
+    private Integer revision;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+}
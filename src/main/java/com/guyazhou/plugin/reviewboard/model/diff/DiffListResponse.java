@@ -0,0 +1,19 @@
+package com.guyazhou.plugin.reviewboard.model.diff;
+
+import com.guyazhou.plugin.reviewboard.model.Response;
+
+/**
+ * Diff list response, the diff of a draft is listed at most once
+ */
+public class DiffListResponse extends Response {
+
+    private Diff[] diffs;
+
+    public Diff[] getDiffs() {
+        return diffs;
+    }
+
+    public void setDiffs(Diff[] diffs) {
+        this.diffs = diffs;
+    }
+}
@@ -0,0 +1,19 @@
+package com.guyazhou.plugin.reviewboard.model.diff;
+
+import com.guyazhou.plugin.reviewboard.model.Response;
+
+/**
+ * Diff response
+ */
+public class DiffResponse extends Response {
+
+    private Diff diff;
+
+    public Diff getDiff() {
+        return diff;
+    }
+
+    public void setDiff(Diff diff) {
+        this.diff = diff;
+    }
+}
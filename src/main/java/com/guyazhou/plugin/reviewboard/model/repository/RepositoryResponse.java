@@ -1,6 +1,8 @@
 package com.guyazhou.plugin.reviewboard.model.repository;
 
+import com.google.gson.annotations.SerializedName;
 import com.guyazhou.plugin.reviewboard.model.Link;
+import com.guyazhou.plugin.reviewboard.model.ListResponse;
 
 import java.util.Map;
 
@@ -11,7 +13,7 @@ import java.util.Map;
  *
  * @author YaZhou.Gu 2017/1/4
  */
-public class RepositoryResponse {
+public class RepositoryResponse implements ListResponse<Repository> {
 
     /**
      * Repository stat
@@ -24,8 +26,9 @@ public class RepositoryResponse {
     private Repository[] repositories;
 
     /**
-     * Total repositories num
+     * Total repositories num, server names it total_results
      */
+    @SerializedName(value = "total_results", alternate = "total_result")
     private Integer total_result;
 
     /**
@@ -52,6 +55,7 @@ public class RepositoryResponse {
         this.repositories = repositories;
     }
 
+    @Override
     public Integer getTotal_result() {
         return total_result;
     }
@@ -67,4 +71,14 @@ public class RepositoryResponse {
     public void setLinks(Map<String, Link> links) {
         this.links = links;
     }
+
+    @Override
+    public Repository[] getItems() {
+        return this.repositories;
+    }
+
+    @Override
+    public void setItems(Repository[] items) {
+        this.repositories = items;
+    }
 }
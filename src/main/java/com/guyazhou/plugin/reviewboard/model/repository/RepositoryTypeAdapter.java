@@ -0,0 +1,97 @@
+package com.guyazhou.plugin.reviewboard.model.repository;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.guyazhou.plugin.reviewboard.model.Link;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Hand-written adapter of the repository, the catalogue holds hundreds of them.
+ * Reads the fields the plugin knows and skips the others without reflection.
+ */
+public class RepositoryTypeAdapter extends TypeAdapter<Repository> {
+
+    public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (Repository.class != type.getRawType()) {
+                return null;
+            }
+            TypeAdapter<Map<String, Link>> linksAdapter = gson.getAdapter(new TypeToken<Map<String, Link>>() {});
+            return (TypeAdapter<T>) new RepositoryTypeAdapter(linksAdapter).nullSafe();
+        }
+    };
+
+    private final TypeAdapter<Map<String, Link>> linksAdapter;
+
+    private RepositoryTypeAdapter(TypeAdapter<Map<String, Link>> linksAdapter) {
+        this.linksAdapter = linksAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, Repository repository) throws IOException {
+        out.beginObject();
+        out.name("id").value(repository.getId());
+        out.name("name").value(repository.getName());
+        out.name("path").value(repository.getPath());
+        out.name("tool").value(repository.getTool());
+        out.name("mirror_path").value(repository.getMirror_path());
+        out.name("visible").value(repository.getVisible());
+        out.name("bug_tracker").value(repository.getBug_tracher());
+        out.name("links");
+        linksAdapter.write(out, repository.getLinks());
+        out.endObject();
+    }
+
+    @Override
+    public Repository read(JsonReader in) throws IOException {
+        Repository repository = new Repository();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (JsonToken.NULL == in.peek()) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    repository.setId(in.nextInt());
+                    break;
+                case "name":
+                    repository.setName(in.nextString());
+                    break;
+                case "path":
+                    repository.setPath(in.nextString());
+                    break;
+                case "tool":
+                    repository.setTool(in.nextString());
+                    break;
+                case "mirror_path":
+                    repository.setMirror_path(in.nextString());
+                    break;
+                case "visible":
+                    repository.setVisible(in.nextBoolean());
+                    break;
+                case "bug_tracker":
+                    repository.setBug_tracher(in.nextString());
+                    break;
+                case "links":
+                    repository.setLinks(linksAdapter.read(in));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return repository;
+    }
+
+}
@@ -1,7 +1,42 @@
 package com.guyazhou.plugin.reviewboard.model.session;
 
+import com.guyazhou.plugin.reviewboard.model.Link;
+
+import java.util.Map;
+
 /**
+ * Session
+ *
+ * Correspond to http://review-server/api/session/
+ *
  * @author YaZhou.Gu 2018/8/7
  */
 public class Session {
+
+    /**
+     * Whether the request is authenticated by the session cookie
+     */
+    private Boolean authenticated;
+
+    /**
+     * Session links
+     * self, delete, user
+     */
+    private Map<String, Link> links;
+
+    public Boolean getAuthenticated() {
+        return authenticated;
+    }
+
+    public void setAuthenticated(Boolean authenticated) {
+        this.authenticated = authenticated;
+    }
+
+    public Map<String, Link> getLinks() {
+        return links;
+    }
+
+    public void setLinks(Map<String, Link> links) {
+        this.links = links;
+    }
 }
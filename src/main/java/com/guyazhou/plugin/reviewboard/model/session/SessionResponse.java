@@ -0,0 +1,19 @@
+package com.guyazhou.plugin.reviewboard.model.session;
+
+import com.guyazhou.plugin.reviewboard.model.Response;
+
+/**
+ * Session response
+ */
+public class SessionResponse extends Response {
+
+    private Session session;
+
+    public Session getSession() {
+        return session;
+    }
+
+    public void setSession(Session session) {
+        this.session = session;
+    }
+}
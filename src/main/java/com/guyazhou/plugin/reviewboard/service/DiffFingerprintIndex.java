@@ -0,0 +1,296 @@
+package com.guyazhou.plugin.reviewboard.service;
+
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.util.xmlb.XmlSerializerUtil;
+import com.intellij.util.xmlb.annotations.MapAnnotation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fingerprint of the diff last uploaded to each review request, kept across IDE restarts.
+ * Checked locally before uploading, so re-submitting the same changes does not create an empty diff revision.
+ * Until the draft holding the diff is published, the diff is pending: the draft may be discarded with it,
+ * so a pending diff is checked on the server before it is taken as uploaded.
+ */
+@State(
+        name = "com.guyazhou.tools.plugin.reviewboard.diffs",
+        storages = {@Storage("review-board-diffs.xml")}
+)
+public class DiffFingerprintIndex implements PersistentStateComponent<DiffFingerprintIndex.State> {
+
+    /**
+     * Oldest review requests are dropped beyond this
+     */
+    private static final int MAX_ENTRIES = 500;
+
+    private State state = new State();
+
+    public static DiffFingerprintIndex getInstance() {
+        return ApplicationManager.getApplication().getService(DiffFingerprintIndex.class);
+    }
+
+    /**
+     * Check whether a diff with this fingerprint is the one last uploaded to the review request
+     *
+     * @param apiURL      review board api url
+     * @param reviewId    review request id
+     * @param fingerprint diff fingerprint
+     * @return true if uploaded already, it may still be pending
+     */
+    public boolean isUploaded(String apiURL, String reviewId, String fingerprint) {
+        return fingerprint.equals(this.getFingerprint(apiURL, reviewId));
+    }
+
+    public synchronized String getFingerprint(String apiURL, String reviewId) {
+        return state.getFingerprints().get(getIndexKey(apiURL, reviewId));
+    }
+
+    /**
+     * Get the diff last uploaded to the review request if its draft is not known to be published
+     *
+     * @param apiURL   review board api url
+     * @param reviewId review request id
+     * @return pending diff, null if published or unknown
+     */
+    public synchronized PendingDiff getPendingDiff(String apiURL, String reviewId) {
+        return state.getPendingDiffs().get(getIndexKey(apiURL, reviewId));
+    }
+
+    /**
+     * Record the diff uploaded into the draft of the review request, it is pending until the draft is published
+     *
+     * @param apiURL      review board api url
+     * @param reviewId    review request id
+     * @param fingerprint diff fingerprint
+     * @param pendingDiff the uploaded diff
+     */
+    public synchronized void markUploaded(String apiURL, String reviewId, String fingerprint, PendingDiff pendingDiff) {
+        Map<String, String> fingerprints = state.getFingerprints();
+        String indexKey = getIndexKey(apiURL, reviewId);
+        fingerprints.remove(indexKey);  // move to the newest end
+        fingerprints.put(indexKey, fingerprint);
+        state.getPendingDiffs().put(indexKey, pendingDiff);
+        Iterator<String> iterator = fingerprints.keySet().iterator();
+        while (fingerprints.size() > MAX_ENTRIES && iterator.hasNext()) {
+            state.getPendingDiffs().remove(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Record that the draft holding the diff last uploaded to the review request is published
+     *
+     * @param apiURL   review board api url
+     * @param reviewId review request id
+     */
+    public synchronized void markPublished(String apiURL, String reviewId) {
+        state.getPendingDiffs().remove(getIndexKey(apiURL, reviewId));
+    }
+
+    /**
+     * Forget the diff uploaded to the review request, the next submit uploads it again
+     *
+     * @param apiURL   review board api url
+     * @param reviewId review request id
+     */
+    public synchronized void invalidate(String apiURL, String reviewId) {
+        String indexKey = getIndexKey(apiURL, reviewId);
+        state.getFingerprints().remove(indexKey);
+        state.getPendingDiffs().remove(indexKey);
+    }
+
+    private static String getIndexKey(String apiURL, String reviewId) {
+        return apiURL + "#" + reviewId;
+    }
+
+    /**
+     * SHA-256 of a diff, ignoring line endings and the Index and separator lines, which change without the content changing.
+     * The diff is streamed through, never held in memory as a whole.
+     * The svn root and base path are part of it, the server resolves the same diff against them to other files.
+     *
+     * @param diffSource  diff content
+     * @param svnRoot     basedir the diff is uploaded with, nullable
+     * @param svnBasePath path of the working copy in repository, nullable
+     * @return hex fingerprint
+     */
+    public static String fingerprint(ContentSource diffSource, String svnRoot, String svnBasePath) {
+        LineDigestOutputStream lineDigestOutputStream = new LineDigestOutputStream();
+        lineDigestOutputStream.update(svnRoot);
+        lineDigestOutputStream.update(svnBasePath);
+        try {
+            diffSource.writeTo(lineDigestOutputStream);
+        } catch (IOException e) {
+            throw new RuntimeException("Read diff error, " + e.getMessage());
+        }
+        byte[] hash = lineDigestOutputStream.digest();
+        StringBuilder stringBuilder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            stringBuilder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Digests a diff line by line, the markers are ascii so lines are matched as bytes
+     */
+    private static class LineDigestOutputStream extends OutputStream {
+
+        private static final byte[] INDEX_PREFIX = "Index: ".getBytes(StandardCharsets.US_ASCII);
+
+        private final MessageDigest messageDigest;
+        private byte[] line = new byte[256];
+        private int lineLength;
+
+        LineDigestOutputStream() {
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            if ('\n' == b) {
+                this.endLine();
+                return;
+            }
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                this.write(b[i]);
+            }
+        }
+
+        void update(String value) {
+            if (null != value) {
+                messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            messageDigest.update((byte) 0);
+        }
+
+        byte[] digest() {
+            if (lineLength > 0) {
+                this.endLine();
+            }
+            return messageDigest.digest();
+        }
+
+        private void endLine() {
+            int length = lineLength > 0 && '\r' == line[lineLength - 1] ? lineLength - 1 : lineLength;
+            if (!this.isHeaderNoise(length)) {
+                messageDigest.update(line, 0, length);
+                messageDigest.update((byte) '\n');
+            }
+            lineLength = 0;
+        }
+
+        private boolean isHeaderNoise(int length) {
+            if (length >= INDEX_PREFIX.length && Arrays.equals(line, 0, INDEX_PREFIX.length, INDEX_PREFIX, 0, INDEX_PREFIX.length)) {
+                return true;
+            }
+            if (length < 60) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if ('=' != line[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A diff uploaded into a draft, identified on the server by its id and revision
+     */
+    public static class PendingDiff {
+
+        private int id;
+        private int revision;
+
+        public PendingDiff() {
+        }
+
+        public PendingDiff(int id, int revision) {
+            this.id = id;
+            this.revision = revision;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public int getRevision() {
+            return revision;
+        }
+
+        public void setRevision(int revision) {
+            this.revision = revision;
+        }
+    }
+
+    /**
+     * Persistent state, review request key to diff fingerprint, least recently uploaded first,
+     * and review request key to the uploaded diff while its draft is not published
+     */
+    public static class State {
+
+        private Map<String, String> fingerprints = new LinkedHashMap<>();
+        private Map<String, PendingDiff> pendingDiffs = new HashMap<>();
+
+        @MapAnnotation(sortBeforeSave = false)  // the order is the eviction order, it must survive a restart
+        public Map<String, String> getFingerprints() {
+            return fingerprints;
+        }
+
+        public void setFingerprints(Map<String, String> fingerprints) {
+            this.fingerprints = new LinkedHashMap<>(fingerprints);
+        }
+
+        public Map<String, PendingDiff> getPendingDiffs() {
+            return pendingDiffs;
+        }
+
+        public void setPendingDiffs(Map<String, PendingDiff> pendingDiffs) {
+            this.pendingDiffs = new HashMap<>(pendingDiffs);
+        }
+    }
+
+    @Nullable
+    @Override
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    @Override
+    public synchronized void loadState(@NotNull State persistentState) {
+        XmlSerializerUtil.copyBean(persistentState, this.state);
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.guyazhou.plugin.reviewboard.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ApplicationManager;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What the server holds for the review requests submitted from this IDE:
+ * the draft fields last sent and whether a draft is still unpublished.
+ * The submit planner compares against it to skip calls which would change nothing,
+ * on a miss it reads the draft from server instead.
+ */
+public class DraftCache {
+
+    /**
+     * Draft fields the server returns, the ones a draft can be compared on
+     */
+    static final String[] DRAFT_FIELDS = {"summary", "branch", "bugs_closed", "description", "target_people", "target_groups", "depends_on"};
+
+    /**
+     * Comma separated fields, the server may order and space them differently from what was sent
+     */
+    private static final List<String> LIST_FIELDS = Arrays.asList("bugs_closed", "target_people", "target_groups", "depends_on");
+
+    private final Map<String, CachedDraft> drafts = new ConcurrentHashMap<>();
+
+    public static DraftCache getInstance() {
+        return ApplicationManager.getApplication().getService(DraftCache.class);
+    }
+
+    /**
+     * Get the cached draft of a review request
+     *
+     * @param apiURL   review board api url
+     * @param reviewId review request id
+     * @return cached draft, null if the review request was not submitted from here
+     */
+    public CachedDraft get(String apiURL, String reviewId) {
+        return drafts.get(getDraftKey(apiURL, reviewId));
+    }
+
+    public void put(String apiURL, String reviewId, CachedDraft cachedDraft) {
+        drafts.put(getDraftKey(apiURL, reviewId), cachedDraft);
+    }
+
+    /**
+     * Forget a review request, the next submit sends everything again
+     *
+     * @param apiURL   review board api url
+     * @param reviewId review request id
+     */
+    public void invalidate(String apiURL, String reviewId) {
+        drafts.remove(getDraftKey(apiURL, reviewId));
+    }
+
+    /**
+     * Convert a draft or review request resource into the fields as the submit sends them.
+     * Lists are joined by comma, people and groups by their names, review requests by their ids.
+     *
+     * @param resource draft or review request json
+     * @return field map, empty values are left out
+     */
+    static Map<String, Object> toDraftFields(JsonObject resource) {
+        Map<String, Object> draftFields = new HashMap<>();
+        if (null == resource) {
+            return draftFields;
+        }
+        for (String field : DRAFT_FIELDS) {
+            JsonElement value = resource.get(field);
+            String text = null;
+            if (null == value || value.isJsonNull()) {
+                continue;
+            } else if (value.isJsonPrimitive()) {
+                text = value.getAsString();
+            } else if (value.isJsonArray()) {
+                List<String> items = new ArrayList<>();
+                for (JsonElement item : value.getAsJsonArray()) {
+                    if (item.isJsonPrimitive()) {
+                        items.add(item.getAsString());
+                    } else if (item.isJsonObject() && "depends_on".equals(field) && item.getAsJsonObject().has("href")) {
+                        // .../review-requests/{id}/
+                        String href = StringUtils.removeEnd(item.getAsJsonObject().get("href").getAsString(), "/");
+                        items.add(href.substring(href.lastIndexOf('/') + 1));
+                    } else if (item.isJsonObject() && item.getAsJsonObject().has("title")) {
+                        items.add(item.getAsJsonObject().get("title").getAsString());
+                    }
+                }
+                text = String.join(",", items);
+            }
+            if (StringUtils.isNotEmpty(text)) {
+                draftFields.put(field, text);
+            }
+        }
+        return draftFields;
+    }
+
+    private static String getDraftKey(String apiURL, String reviewId) {
+        return apiURL + "#" + reviewId;
+    }
+
+    /**
+     * Draft state of one review request
+     */
+    public static class CachedDraft {
+
+        private final Map<String, Object> fields;
+        private final boolean unpublished;
+
+        /**
+         * @param fields      draft fields as sent or as read from server
+         * @param unpublished true if changes are left in an unpublished draft
+         */
+        public CachedDraft(Map<String, Object> fields, boolean unpublished) {
+            this.fields = Collections.unmodifiableMap(new HashMap<>(fields));
+            this.unpublished = unpublished;
+        }
+
+        public Map<String, Object> getFields() {
+            return fields;
+        }
+
+        public boolean isUnpublished() {
+            return unpublished;
+        }
+
+        /**
+         * Get the fields which differ from this draft.
+         * Fields the server does not return can not be compared and are left out, so are empty ones, they are never sent.
+         *
+         * @param draftFields draft fields to send
+         * @return changed fields
+         */
+        public Map<String, Object> getChangedFields(Map<String, Object> draftFields) {
+            Map<String, Object> changedFields = new HashMap<>();
+            for (String field : DRAFT_FIELDS) {
+                Object value = draftFields.get(field);
+                if (null != value && !isSameValue(field, value, fields.get(field))) {
+                    changedFields.put(field, value);
+                }
+            }
+            return changedFields;
+        }
+
+        private static boolean isSameValue(String field, Object value, Object cachedValue) {
+            if (null == cachedValue) {
+                return false;
+            }
+            if (LIST_FIELDS.contains(field)) {
+                return toItems(value).equals(toItems(cachedValue));
+            }
+            return Objects.equals(String.valueOf(value), String.valueOf(cachedValue));
+        }
+
+        private static Set<String> toItems(Object value) {
+            Set<String> items = new HashSet<>();
+            for (String item : String.valueOf(value).split(",")) {
+                if (!item.trim().isEmpty()) {
+                    items.add(item.trim());
+                }
+            }
+            return items;
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.guyazhou.plugin.reviewboard.service;
+
+import com.guyazhou.plugin.reviewboard.http.AbortHandle;
+import com.guyazhou.plugin.reviewboard.model.ListResponse;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Fetch every page of a review board list resource.
+ * The first page tells the total, the remaining pages are fetched concurrently and merged in order.
+ */
+public class PagedListFetcher {
+
+    /**
+     * Review board caps max-results at 200
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * Pages are fetched here rather than on the client executor, a page never waits on another task
+     */
+    private static final ExecutorService PAGE_EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor("Review Board Pages", 4);
+
+    /**
+     * Get the url of a page
+     *
+     * @param listURL list resource url, may already contain query params
+     * @param start   start offset
+     * @param size    max results
+     * @return page url
+     */
+    public static String getPageURL(String listURL, int start, int size) {
+        return listURL + (listURL.contains("?") ? "&" : "?") + "start=" + start + "&max-results=" + size;
+    }
+
+    /**
+     * Get the url of the first page
+     *
+     * @param listURL list resource url
+     * @return first page url
+     */
+    public static String getFirstPageURL(String listURL) {
+        return getPageURL(listURL, 0, PAGE_SIZE);
+    }
+
+    /**
+     * Fetch all pages of a list resource
+     *
+     * @param listURL    list resource url
+     * @param pageLoader loads a parsed page by page url
+     * @return the first page holding the items of all pages
+     */
+    public static <T, R extends ListResponse<T>> R fetchAll(String listURL, Function<String, R> pageLoader) {
+        return fetchRemaining(listURL, pageLoader.apply(getFirstPageURL(listURL)), pageLoader);
+    }
+
+    /**
+     * Fetch the remaining pages of a list resource whose first page is already loaded
+     *
+     * @param listURL    list resource url
+     * @param firstPage  first page
+     * @param pageLoader loads a parsed page by page url
+     * @return the first page holding the items of all pages
+     */
+    public static <T, R extends ListResponse<T>> R fetchRemaining(String listURL, R firstPage, Function<String, R> pageLoader) {
+        if (null == firstPage) {
+            return null;
+        }
+        T[] firstItems = firstPage.getItems();
+        Integer totalResult = firstPage.getTotal_result();
+        if (null == firstItems || 0 == firstItems.length || null == totalResult || firstItems.length >= totalResult) {
+            return firstPage;
+        }
+
+        // server may cap max-results below what we asked, follow the size it actually returns
+        int pageSize = firstItems.length;
+        // pages run on other threads, they join the abort handle of the caller so cancelling the caller aborts them too
+        AbortHandle abortHandle = null == AbortHandle.current() ? new AbortHandle() : AbortHandle.current();
+        List<CompletableFuture<R>> pageFutures = new ArrayList<>();
+        for (int start = pageSize; start < totalResult; start += pageSize) {
+            String pageURL = getPageURL(listURL, start, pageSize);
+            pageFutures.add(CompletableFuture.supplyAsync(() -> abortHandle.run(() -> pageLoader.apply(pageURL)), PAGE_EXECUTOR));
+        }
+
+        List<T> items = new ArrayList<>(totalResult);
+        Collections.addAll(items, firstItems);
+        try {
+            for (CompletableFuture<R> pageFuture : pageFutures) {
+                R page = pageFuture.join();
+                if (null != page && null != page.getItems()) {
+                    Collections.addAll(items, page.getItems());
+                }
+            }
+        } catch (CompletionException e) {
+            for (CompletableFuture<R> pageFuture : pageFutures) {
+                pageFuture.cancel(true);
+            }
+            abortHandle.abort();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        firstPage.setItems(items.toArray(Arrays.copyOf(firstItems, items.size())));
+        return firstPage;
+    }
+
+    /**
+     * Check pages concurrently, under the abort handle of the caller
+     *
+     * @param pages     pages to check
+     * @param pageCheck checks one page
+     * @return true if the check passes for every page
+     */
+    public static <P> boolean allMatch(List<P> pages, Predicate<P> pageCheck) {
+        AbortHandle abortHandle = null == AbortHandle.current() ? new AbortHandle() : AbortHandle.current();
+        List<CompletableFuture<Boolean>> pageFutures = new ArrayList<>();
+        for (P page : pages) {
+            pageFutures.add(CompletableFuture.supplyAsync(() -> abortHandle.run(() -> pageCheck.test(page)), PAGE_EXECUTOR));
+        }
+        try {
+            boolean allMatched = true;
+            for (CompletableFuture<Boolean> pageFuture : pageFutures) {
+                allMatched &= pageFuture.join();
+            }
+            return allMatched;
+        } catch (CompletionException e) {
+            for (CompletableFuture<Boolean> pageFuture : pageFutures) {
+                pageFuture.cancel(true);
+            }
+            abortHandle.abort();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.guyazhou.plugin.reviewboard.service;
+
+import com.guyazhou.plugin.reviewboard.model.repository.RepositoryResponse;
+import com.guyazhou.plugin.reviewboard.utils.JsonUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory and on-disk cache of the repository catalogue per server and user.
+ * The cached catalogue is returned at once and revalidated with conditional GETs of its pages in background.
+ */
+public class RepositoryCatalogCache {
+
+    private final Logger log = LoggerFactory.getLogger(RepositoryCatalogCache.class);
+
+    /**
+     * Do not ask server again if the catalogue was validated within this period
+     */
+    private static final long REVALIDATE_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<String, Catalog> catalogs = new ConcurrentHashMap<>();
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    public static RepositoryCatalogCache getInstance() {
+        return ApplicationManager.getApplication().getService(RepositoryCatalogCache.class);
+    }
+
+    /**
+     * Loads the catalogue from server
+     */
+    @FunctionalInterface
+    public interface CatalogLoader {
+
+        /**
+         * Load the catalogue
+         *
+         * @param cached cached catalogue whose validators are sent, null if nothing cached
+         * @return new catalogue, or null if the cached one is not modified
+         */
+        Catalog load(Catalog cached);
+    }
+
+    /**
+     * Get repositories, from cache if possible
+     *
+     * @param cacheKey server and user
+     * @param loader   catalogue loader
+     * @return repository response
+     */
+    public RepositoryResponse getRepositories(String cacheKey, CatalogLoader loader) {
+        Catalog cached = catalogs.get(cacheKey);
+        if (null == cached) {
+            cached = this.readFromDisk(cacheKey);
+            if (null != cached) {
+                catalogs.put(cacheKey, cached);
+            }
+        }
+        if (null == cached) {
+            Catalog loaded = loader.load(null);
+            this.store(cacheKey, loaded);
+            return loaded.getRepositoryResponse();
+        }
+        this.revalidateInBackground(cacheKey, cached, loader);
+        return cached.getRepositoryResponse();
+    }
+
+    private void revalidateInBackground(String cacheKey, Catalog cached, CatalogLoader loader) {
+        if (System.currentTimeMillis() - cached.validatedAt < REVALIDATE_INTERVAL || !revalidating.add(cacheKey)) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            try {
+                Catalog loaded = loader.load(cached);
+                if (null == loaded) {
+                    log.info("Repository catalogue not modified: " + cacheKey);
+                    this.store(cacheKey, new Catalog(cached.getRepositoryResponse(), cached.getPageValidators()));
+                } else {
+                    log.info("Repository catalogue updated: " + cacheKey);
+                    this.store(cacheKey, loaded);
+                }
+            } catch (Exception e) {
+                log.warn("Revalidate repository catalogue error, keep the cached one", e);
+            } finally {
+                revalidating.remove(cacheKey);
+            }
+        });
+    }
+
+    private void store(String cacheKey, Catalog catalog) {
+        if (null == catalog || null == catalog.getRepositoryResponse() || !"ok".equals(catalog.getRepositoryResponse().getStat())) {
+            return;     // never cache error responses
+        }
+        catalogs.put(cacheKey, catalog);
+        Path cacheFile = getCacheFile(cacheKey);
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path tmpFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                JsonUtil.getGson().toJson(catalog, writer);
+            }
+            Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Write repository catalogue cache error", e);
+        }
+    }
+
+    private Catalog readFromDisk(String cacheKey) {
+        Path cacheFile = getCacheFile(cacheKey);
+        if (!Files.exists(cacheFile)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            Catalog catalog = JsonUtil.fromJson(reader, Catalog.class);
+            if (null != catalog) {
+                catalog.validatedAt = 0;    // always revalidate what comes from disk
+            }
+            return catalog;
+        } catch (Exception e) {
+            log.warn("Read repository catalogue cache error", e);
+            return null;
+        }
+    }
+
+    private static Path getCacheFile(String cacheKey) {
+        return Paths.get(PathManager.getSystemPath(), "review-board", "repositories", cacheKey.replaceAll("[^A-Za-z0-9.-]", "_") + ".json");
+    }
+
+    /**
+     * Cached repository catalogue with the validators of its pages, the first page comes first
+     */
+    public static class Catalog {
+
+        private RepositoryResponse repositoryResponse;
+        private List<PageValidator> pageValidators;
+        private transient long validatedAt;
+
+        public Catalog(RepositoryResponse repositoryResponse, List<PageValidator> pageValidators) {
+            this.repositoryResponse = repositoryResponse;
+            this.pageValidators = pageValidators;
+            this.validatedAt = System.currentTimeMillis();
+        }
+
+        public RepositoryResponse getRepositoryResponse() {
+            return repositoryResponse;
+        }
+
+        /**
+         * Get the page validators, the first page holds total_results so a page added or removed changes the first one
+         *
+         * @return page validators, empty for a catalogue cached before validators were kept per page
+         */
+        public List<PageValidator> getPageValidators() {
+            return null == pageValidators ? Collections.emptyList() : pageValidators;
+        }
+    }
+
+    /**
+     * Cache validators of one page of the catalogue
+     */
+    public static class PageValidator {
+
+        private String pageURL;
+        private String eTag;
+        private String lastModified;
+
+        public PageValidator(String pageURL, String eTag, String lastModified) {
+            this.pageURL = pageURL;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        public String getPageURL() {
+            return pageURL;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Can the page be revalidated at all
+         *
+         * @return true if the server sent a validator
+         */
+        public boolean isPresent() {
+            return null != eTag || null != lastModified;
+        }
+    }
+
+}
@@ -1,28 +1,51 @@
 package com.guyazhou.plugin.reviewboard.service;
 
-import com.google.gson.Gson;
+import com.guyazhou.plugin.reviewboard.exceptions.HttpStatusException;
 import com.guyazhou.plugin.reviewboard.exceptions.IllegalSettingException;
+import com.guyazhou.plugin.reviewboard.http.AbortableFuture;
 import com.guyazhou.plugin.reviewboard.http.HttpClient;
+import com.guyazhou.plugin.reviewboard.http.HttpResult;
+import com.guyazhou.plugin.reviewboard.http.HttpTransport;
+import com.guyazhou.plugin.reviewboard.http.HttpTransportManager;
 import com.guyazhou.plugin.reviewboard.model.DiffVirtualFile;
 import com.guyazhou.plugin.reviewboard.model.Response;
+import com.guyazhou.plugin.reviewboard.model.ReviewBoardResource;
 import com.guyazhou.plugin.reviewboard.model.ReviewParams;
+import com.guyazhou.plugin.reviewboard.model.diff.Diff;
+import com.guyazhou.plugin.reviewboard.model.diff.DiffListResponse;
+import com.guyazhou.plugin.reviewboard.model.diff.DiffResponse;
 import com.guyazhou.plugin.reviewboard.model.draft.DraftResponse;
 import com.guyazhou.plugin.reviewboard.model.repository.RepositoryResponse;
 import com.guyazhou.plugin.reviewboard.model.review_request.ReviewRequestDraft;
 import com.guyazhou.plugin.reviewboard.setting.ReviewBoardSetting;
+import com.guyazhou.plugin.reviewboard.utils.JsonUtil;
+import com.google.gson.JsonObject;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.*;
+import java.net.HttpCookie;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * ReviewBoard client
@@ -33,6 +56,11 @@ public class ReviewBoardClient {
 
     private final Logger log = LoggerFactory.getLogger(ReviewBoardClient.class);
 
+    /**
+     * Network calls of the async api run here, so they never hold a pooled IDE thread while waiting
+     */
+    private static final ExecutorService EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor("Review Board Client", 4);
+
     /**
      * Review board server url in setting panel
      */
@@ -56,20 +84,42 @@ public class ReviewBoardClient {
     }
 
     /**
-     * Get cookie
+     * Run a request with the session of the user in setting panel
      *
-     * @return cookie value
+     * @param request request using a http client carrying the session cookie
+     * @return request result
      */
-    private String getCookie() {
+    private <T> T withSession(Function<HttpClient, T> request) {
         Map<String, String> userInfo = this.loadUserInfo();
         if (null == userInfo || 0 == userInfo.size()) {
             throw new RuntimeException("User info is empty");
         }
-        ReviewBoardSetting.State state = ReviewBoardSetting.getInstance().getState();
-        if (null == state) {
-            throw new RuntimeException("Read state error");
+        return this.withSession(userInfo.get("username"), userInfo.get("password"), request);
+    }
+
+    /**
+     * Run a request with the cached session of the given user,
+     * re-authenticate and retry once if the server rejects the session
+     *
+     * @param username username
+     * @param password password
+     * @param request  request using a http client carrying the session cookie
+     * @return request result
+     */
+    private <T> T withSession(String username, String password, Function<HttpClient, T> request) {
+        SessionManager sessionManager = SessionManager.getInstance();
+        String cookie = sessionManager.getCookie(this.apiURL, username, password);
+        try {
+            return request.apply(new HttpClient(Collections.singletonMap("Cookie", cookie)));
+        } catch (HttpStatusException e) {
+            if (!e.isAuthenticationError()) {
+                throw e;
+            }
+            log.info(String.format("Session of [ %s ] is rejected (%s), login again", username, e.getStatusCode()));
+            sessionManager.invalidate(this.apiURL, username);
+            cookie = sessionManager.getCookie(this.apiURL, username, password);
+            return request.apply(new HttpClient(Collections.singletonMap("Cookie", cookie)));
         }
-        return ReviewBoardClient.login(this.apiURL, userInfo.get("username"), userInfo.get("password"));
     }
 
     /**
@@ -95,18 +145,26 @@ public class ReviewBoardClient {
     }
 
     /**
-     * Post submit to review board server
+     * Post submit to review board server.
+     * Calls are planned against the cached draft: only changed fields are sent, an unchanged diff is not uploaded again
+     * and publishing is folded into the last draft update.
      *
      * @param reviewParams      review params
      * @param progressIndicator indicator
      * @return true if success, otherwise false
      */
     public boolean submitReview(ReviewParams reviewParams, ProgressIndicator progressIndicator) {
+        int roundTrips = 0;
+        // update draft, upload diffs, then publish unless it is a draft
+        int naiveRoundTrips = reviewParams.isDraft() ? 2 : 3;
         String reviewId = reviewParams.getReviewId();
+        boolean created = null == reviewId || "".equals(reviewId);
         // Creating review requst draft
-        if (null == reviewId || "".equals(reviewId)) {
+        if (created) {
             progressIndicator.setText("Creating Review Request Draft");
             ReviewRequestDraft reviewRequestDraft = this.createNewReviewRequest(reviewParams.getRepositoryId());
+            roundTrips++;
+            naiveRoundTrips++;
 
             if (null == reviewRequestDraft) {
                 throw new RuntimeException("Create new review request error from server");
@@ -115,35 +173,86 @@ public class ReviewBoardClient {
             }
             reviewParams.setReviewId(String.valueOf(reviewRequestDraft.getReview_request().getId()));
         }
-
-        // Update review request draft
-        progressIndicator.setText("Updating Review Request Draft");
-        DraftResponse draftResponse = this.updateReviewRequestDraft(reviewParams);
-        if (null == draftResponse) {
-            throw new RuntimeException("DraftResponse is null");
+        DraftCache draftCache = DraftCache.getInstance();
+        DraftCache.CachedDraft cachedDraft = draftCache.get(apiURL, reviewParams.getReviewId());
+        if (null == cachedDraft && !created) {
+            // not submitted from here since the IDE started, plan against what the server holds
+            progressIndicator.setText("Reading Review Request Draft");
+            cachedDraft = this.loadServerDraft(reviewParams.getReviewId());
+            roundTrips++;
         }
 
-        // Uploading diffs
+        // Uploading diffs, a new diff revision goes into the draft, so it must be there before publishing
         progressIndicator.setText("Uploading Diffs");
         Response response = this.uploadDiffs(reviewParams);
-        /**
-         * 判断是否草搞，如果没有勾选，就不是草稿需要publish
-         */
-        if (!reviewParams.isDraft()) {
-            this.publishReviewRequest(reviewParams.getReviewId());
+        boolean diffUploaded = null != response;
+        if (diffUploaded) {
+            checkResponse(response, "Response is null");
+            roundTrips++;
+            // remember the upload even if the draft update below fails
+            draftCache.put(apiURL, reviewParams.getReviewId(), new DraftCache.CachedDraft(
+                    null == cachedDraft ? Collections.emptyMap() : cachedDraft.getFields(), true));
         }
-        if (null == response) {
-            throw new RuntimeException("Response is null");
+
+        // Update review request draft, only the fields which are changed
+        Map<String, Object> draftFields = getDraftFields(reviewParams);
+        Map<String, Object> params = null == cachedDraft ? new HashMap<>(draftFields) : cachedDraft.getChangedFields(draftFields);
+        boolean diffPending = null != DiffFingerprintIndex.getInstance().getPendingDiff(apiURL, reviewParams.getReviewId());
+        boolean hasChanges = !params.isEmpty() || diffUploaded || diffPending || (null != cachedDraft && cachedDraft.isUnpublished());
+        if (!reviewParams.isDraft() && hasChanges) {
+            params.put("public", "1");  // publish with the last update instead of another put
         }
-        if (!response.isOK()) {
-            throw new RuntimeException(response.getErr().getCode() + ": " + response.getErr().getMsg());
+        if (!params.isEmpty()) {
+            addParam(params, "svnRoot", reviewParams.getSvnRoot());     // not returned by the server, carried along with any update
+            progressIndicator.setText("Updating Review Request Draft");
+            checkResponse(this.putDraft(reviewParams.getReviewId(), params), "DraftResponse is null");
+            roundTrips++;
+            if (params.containsKey("public")) {
+                DiffFingerprintIndex.getInstance().markPublished(apiURL, reviewParams.getReviewId());
+            }
         }
+        draftCache.put(apiURL, reviewParams.getReviewId(), new DraftCache.CachedDraft(draftFields, reviewParams.isDraft() && hasChanges));
 
-        if (!draftResponse.isOK()) {
-            throw new RuntimeException(response.getErr().getCode() + ": " + response.getErr().getMsg());
+        log.info(String.format("Review request %s submitted with %s round trips, %s saved", reviewParams.getReviewId(), roundTrips, naiveRoundTrips - roundTrips));
+        return true;
+    }
+
+    /**
+     * Read the draft fields the server holds for a review request, the published fields if there is no draft
+     *
+     * @param reviewId review request id
+     * @return server state in the form of the fields sent, null if it can not be read
+     */
+    private DraftCache.CachedDraft loadServerDraft(String reviewId) {
+        String[] fields = DraftCache.DRAFT_FIELDS;
+        String reviewRequestURL = apiURL + "review-requests/" + reviewId + "/";
+        try {
+            try {
+                JsonObject draft = this.withSession(httpClient -> httpClient.get(
+                        ReviewBoardResource.query(reviewRequestURL + "draft/").onlyFields(fields).onlyLinks().build(), JsonObject.class));
+                return new DraftCache.CachedDraft(DraftCache.toDraftFields(draft.getAsJsonObject("draft")), true);
+            } catch (HttpStatusException e) {
+                if (404 != e.getStatusCode()) {
+                    throw e;
+                }
+            }
+            // no draft, a put would change the published review request
+            JsonObject reviewRequest = this.withSession(httpClient -> httpClient.get(
+                    ReviewBoardResource.query(reviewRequestURL).onlyFields(fields).onlyLinks().build(), JsonObject.class));
+            return new DraftCache.CachedDraft(DraftCache.toDraftFields(reviewRequest.getAsJsonObject("review_request")), false);
+        } catch (RuntimeException e) {
+            log.warn("Read draft of review request " + reviewId + " error, all fields are sent", e);
+            return null;
         }
+    }
 
-        return true;
+    private static void checkResponse(Response response, String nullMessage) {
+        if (null == response) {
+            throw new RuntimeException(nullMessage);
+        }
+        if (!response.isOK()) {
+            throw new RuntimeException(response.getErr().getCode() + ": " + response.getErr().getMsg());
+        }
     }
 
     /**
@@ -155,21 +264,9 @@ public class ReviewBoardClient {
         if (null == repositoryId) {
             return null;
         }
-        String cookie;
-        try {
-            cookie = this.getCookie();
-        } catch (Exception e) {
-            throw new RuntimeException("Get cookie error, " + e.getMessage());
-        }
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Cookie", cookie);
-
         Map<String, Object> params = new HashMap<>();
         params.put("repository", repositoryId);
-        String responseJson = new HttpClient(headers).post(apiURL + "review-requests/", params);
-
-        Gson gson = new Gson();
-        return gson.fromJson(responseJson, ReviewRequestDraft.class);
+        return this.withSession(httpClient -> httpClient.post(ReviewBoardResource.query(apiURL + "review-requests/").onlyFields("id").onlyLinks().build(), params, ReviewRequestDraft.class));
     }
 
     /**
@@ -181,18 +278,25 @@ public class ReviewBoardClient {
 
         parameters.put("public", "1");
 
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Cookie", this.getCookie());
-
-        String responseJson = new HttpClient(headers).put(apiURL + "review-requests/" + reviewRequestId + "/draft/", parameters);
+        return this.putDraft(reviewRequestId, parameters);
+    }
 
-        Gson gson = new Gson();
-        DraftResponse draftResponse = gson.fromJson(responseJson, DraftResponse.class);
-        return draftResponse;
+    /**
+     * Discard a review request, its submitter may do so whether it is published or not
+     *
+     * @param reviewRequestId review request id
+     */
+    public void discardReviewRequest(String reviewRequestId) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("status", "discarded");
+        Response response = this.withSession(httpClient -> httpClient.put(
+                ReviewBoardResource.query(apiURL + "review-requests/" + reviewRequestId + "/").onlyFields("id").onlyLinks().build(), params, Response.class));
+        checkResponse(response, "Response is null");
+        DraftCache.getInstance().invalidate(apiURL, reviewRequestId);
     }
 
     /**
-     * Update draft with several fields
+     * Update draft with several fields, publish it unless it is a draft
      *
      * @param reviewParams fields, include summary, branch, bus_closed, description, tartget_people, tartget_groups
      * @return A DraftResponse instance
@@ -202,9 +306,20 @@ public class ReviewBoardClient {
         if (null == reviewParams) {
             throw new RuntimeException("Review params is null");
         }
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Cookie", this.getCookie());
+        Map<String, Object> params = getDraftFields(reviewParams);
+        if (!reviewParams.isDraft()) {
+            addParam(params, "public", "1");    // make it public
+        }
+        return this.putDraft(reviewParams.getReviewId(), params);
+    }
 
+    /**
+     * Get the draft fields of review params
+     *
+     * @param reviewParams review params
+     * @return field map, empty values are left out
+     */
+    private Map<String, Object> getDraftFields(ReviewParams reviewParams) {
         Map<String, Object> params = new HashMap<>();
         addParam(params, "summary", reviewParams.getSummary());
         addParam(params, "branch", reviewParams.getBranch());
@@ -212,13 +327,13 @@ public class ReviewBoardClient {
         addParam(params, "description", reviewParams.getDescription());
         addParam(params, "target_people", reviewParams.getPerson());
         addParam(params, "target_groups", reviewParams.getGroup());
-        addParam(params, "public", "1");    // make it public
         addParam(params, "svnRoot", reviewParams.getSvnRoot());
+        addParam(params, "depends_on", reviewParams.getDependsOn());
+        return params;
+    }
 
-        String responseJson = new HttpClient(headers).put(apiURL + "review-requests/" + reviewParams.getReviewId() + "/draft/", params);
-
-        Gson gson = new Gson();
-        return gson.fromJson(responseJson, DraftResponse.class);
+    private DraftResponse putDraft(String reviewRequestId, Map<String, Object> params) {
+        return this.withSession(httpClient -> httpClient.put(ReviewBoardResource.query(apiURL + "review-requests/" + reviewRequestId + "/draft/").onlyFields("id").onlyLinks().build(), params, DraftResponse.class));
     }
 
     /*
@@ -246,26 +361,27 @@ public class ReviewBoardClient {
         }
 
         // basic params
-        Map<String, String> headers = new HashMap<>();
         Map<String, Object> params = new HashMap<>();
         params.put("ship_it", "true");
         params.put("body_top", "Ship It!");
         params.put("public", "1");
 
-        // first person review
-        headers.put("Cookie", this.getCookie());
+        // companion logs in while the first person reviews, the session is picked up from cache below
+        CompletableFuture<String> companionLoginFuture = this.loginAsync(companionUsername, companionPassword);
 
-        String reviewURL = String.format("%sreview-requests/%s/reviews/", this.apiURL, reviewId);
-        String responseJson = new HttpClient(headers).post(reviewURL, params);
-        log.info(responseJson);
-        Gson gson = new Gson();
-        Response response = gson.fromJson(responseJson, Response.class);
+        // first person review
+        String reviewURL = ReviewBoardResource.query(String.format("%sreview-requests/%s/reviews/", this.apiURL, reviewId)).onlyFields("id").onlyLinks().build();
+        Response response = this.withSession(httpClient -> httpClient.post(reviewURL, params, Response.class));
+        log.info(JsonUtil.getString(response));
         if (response.isOK()) {
-            // Companion
-            headers.put("Cookie", ReviewBoardClient.login(this.apiURL, companionUsername, companionPassword));
-            responseJson = new HttpClient(headers).post(reviewURL, params);
-            log.info(responseJson);
-            response = gson.fromJson(responseJson, Response.class);
+            // Companion, its session must be in cache before the post, a failed login is reported as such
+            try {
+                companionLoginFuture.join();
+            } catch (CompletionException e) {
+                throw new RuntimeException("Companion login error, " + e.getCause().getMessage());
+            }
+            response = this.withSession(companionUsername, companionPassword, httpClient -> httpClient.post(reviewURL, params, Response.class));
+            log.info(JsonUtil.getString(response));
             if (response.isOK()) {
                 return true;
             } else {
@@ -291,32 +407,76 @@ public class ReviewBoardClient {
     }
 
     /**
-     * Upload diffs
+     * Upload diffs, nothing is sent if the same diff was uploaded to the review request last time
      *
      * @param reviewParams review params
-     * @return Response
+     * @return Response, null if the diff is not changed
      */
     private Response uploadDiffs(ReviewParams reviewParams) {
         if (null == reviewParams) {
             throw new RuntimeException("Review params is null");
         }
-        String cookie;
-        try {
-            cookie = this.getCookie();
-        } catch (Exception e) {
-            throw new RuntimeException("Get cookie error, " + e.getMessage());
+        DiffFingerprintIndex diffFingerprintIndex = DiffFingerprintIndex.getInstance();
+        String fingerprint = DiffFingerprintIndex.fingerprint(reviewParams.getDiffSource(), reviewParams.getSvnRoot(), reviewParams.getSvnBasePath());
+        if (diffFingerprintIndex.isUploaded(apiURL, reviewParams.getReviewId(), fingerprint)) {
+            DiffFingerprintIndex.PendingDiff pendingDiff = diffFingerprintIndex.getPendingDiff(apiURL, reviewParams.getReviewId());
+            if (null == pendingDiff || this.isDiffOnServer(reviewParams.getReviewId(), pendingDiff)) {
+                log.info("Diff of review request " + reviewParams.getReviewId() + " is not changed, skip uploading");
+                return null;
+            }
+            log.info("Diff of review request " + reviewParams.getReviewId() + " was left in a draft which is gone, uploading again");
         }
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Cookie", cookie);
-
         Map<String, Object> params = new HashMap<>();
         params.put("basedir", reviewParams.getSvnRoot());
-        params.put("path", new DiffVirtualFile("review.diff", reviewParams.getDiff()));
+        params.put("path", new DiffVirtualFile("review.diff", reviewParams.getDiffSource()));
 
-        String responseJson = new HttpClient(headers).post(apiURL + "review-requests/" + reviewParams.getReviewId() + "/diffs/", params, true);
+        DiffResponse response = this.withSession(httpClient -> httpClient.post(ReviewBoardResource.query(apiURL + "review-requests/" + reviewParams.getReviewId() + "/diffs/").onlyFields("id", "revision").onlyLinks().build(), params, true, DiffResponse.class));
+        if (null != response && response.isOK() && null != response.getDiff()) {
+            Diff diff = response.getDiff();
+            diffFingerprintIndex.markUploaded(apiURL, reviewParams.getReviewId(), fingerprint,
+                    new DiffFingerprintIndex.PendingDiff(diff.getId(), diff.getRevision()));
+        }
+        return response;
+    }
 
-        Gson gson = new Gson();
-        return gson.fromJson(responseJson, Response.class);
+    /**
+     * Check whether a diff uploaded into a draft is still on the server, published or still in the draft.
+     * A draft discarded on the server takes its diff with it.
+     *
+     * @param reviewId    review request id
+     * @param pendingDiff diff uploaded into the draft
+     * @return true if the diff is on the server
+     */
+    private boolean isDiffOnServer(String reviewId, DiffFingerprintIndex.PendingDiff pendingDiff) {
+        String reviewRequestURL = apiURL + "review-requests/" + reviewId + "/";
+        try {
+            try {
+                DiffResponse published = this.withSession(httpClient -> httpClient.get(
+                        ReviewBoardResource.query(reviewRequestURL + "diffs/" + pendingDiff.getRevision() + "/").onlyFields("id").onlyLinks().build(), DiffResponse.class));
+                if (null != published && null != published.getDiff() && published.getDiff().getId() == pendingDiff.getId()) {
+                    DiffFingerprintIndex.getInstance().markPublished(apiURL, reviewId);
+                    return true;
+                }
+            } catch (HttpStatusException e) {
+                if (404 != e.getStatusCode()) {
+                    throw e;
+                }
+            }
+            try {
+                DiffListResponse draftDiffs = this.withSession(httpClient -> httpClient.get(
+                        ReviewBoardResource.query(reviewRequestURL + "draft/diffs/").onlyFields("id").onlyLinks().build(), DiffListResponse.class));
+                return null != draftDiffs && null != draftDiffs.getDiffs()
+                        && Arrays.stream(draftDiffs.getDiffs()).anyMatch(diff -> diff.getId() == pendingDiff.getId());
+            } catch (HttpStatusException e) {
+                if (404 != e.getStatusCode()) {
+                    throw e;
+                }
+                return false;   // no draft
+            }
+        } catch (RuntimeException e) {
+            log.warn("Read diffs of review request " + reviewId + " error, the diff is uploaded again", e);
+            return false;
+        }
     }
 
     /**
@@ -328,93 +488,162 @@ public class ReviewBoardClient {
      * @return cookie
      */
     public static String login(String urlStr, String username, String password) {
-        URL url;
+        HttpGet httpGet;
         try {
-            url = new URL(urlStr);
-        } catch (MalformedURLException e) {
+            httpGet = new HttpGet(ReviewBoardResource.query(urlStr).onlyFields().onlyLinks().build());     // only the stat and the cookie matter
+        } catch (IllegalArgumentException e) {
             throw new RuntimeException("URL path is wrong");
         }
-        URLConnection urlConnection;
-        try {
-            urlConnection = url.openConnection();
-        } catch (IOException e) {
-            throw new RuntimeException("Open connection fails");
-        }
-        HttpURLConnection httpURLConnection = (HttpURLConnection) urlConnection;
-        httpURLConnection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes()));
-        httpURLConnection.setInstanceFollowRedirects(false);
-
-        int responseCode;
-        try {
-            responseCode = httpURLConnection.getResponseCode();
-        } catch (IOException e) {
-            throw new RuntimeException("Get response code error");
-        }
-        if (401 == responseCode) {
-            throw new RuntimeException("The username or the password is not correct!");
-        }
-
-        StringBuilder stringBuilder = new StringBuilder();
-        InputStream inputStream = null;
-        BufferedReader bufferedReader = null;
-        try {
-            inputStream = httpURLConnection.getInputStream();
-            bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {  // TODO improve the performance when network is bad
-                stringBuilder.append(line);
+        httpGet.setHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8)));
+
+        HttpTransport httpTransport = HttpTransportManager.getInstance().getTransport(httpGet.getURI());
+        try (CloseableHttpResponse httpResponse = httpTransport.execute(httpGet)) {
+            int responseCode = httpResponse.getStatusLine().getStatusCode();
+            if (401 == responseCode) {
+                EntityUtils.consumeQuietly(httpResponse.getEntity());
+                throw new RuntimeException("The username or the password is not correct!");
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Read from httpConnection stream error");
-        } finally {
-            try {
-                if (null != inputStream) {
-                    inputStream.close();
-                }
-                if (null != bufferedReader) {
-                    bufferedReader.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (null == httpResponse.getEntity()) {
+                throw new RuntimeException("Read from httpConnection stream error");
             }
-        }
-
-        Gson gson = new Gson();
-        Response response = gson.fromJson(stringBuilder.toString(), Response.class);
-        if (response.isOK()) {
-            CookieManager cookieManager = new CookieManager();
-            try {
-                cookieManager.put(url.toURI(), httpURLConnection.getHeaderFields());
-            } catch (IOException | URISyntaxException e) {
-                throw new RuntimeException("Put cookie error");
+            Response response;
+            try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+                response = JsonUtil.fromJson(inputStream, Response.class);
             }
-            List<HttpCookie> httpCookieList = cookieManager.getCookieStore().getCookies();
-            for (HttpCookie httpCookie : httpCookieList) {
-                if ("rbsessionid".equals(httpCookie.getName())) {
-                    return "rbsessionid=" + httpCookie.getValue();
+            if (null == response || !response.isOK()) {
+                throw new RuntimeException("It's not ok??");
+            }
+            for (Header header : httpResponse.getHeaders("Set-Cookie")) {
+                for (HttpCookie httpCookie : HttpCookie.parse(header.getValue())) {
+                    if ("rbsessionid".equals(httpCookie.getName())) {
+                        return "rbsessionid=" + httpCookie.getValue();
+                    }
                 }
             }
-        } else {
-            throw new RuntimeException("It's not ok??");
+        } catch (IOException e) {
+            throw new RuntimeException("Read from httpConnection stream error");
         }
         return "";
     }
 
     /**
-     * Get repositories
+     * Get repositories, the cached catalogue is returned at once and revalidated in background
      *
      * @return all repositories
      */
     public RepositoryResponse getRepositories() {
-        // TODO Temporarily fix repositories issue
-        String path = apiURL + "repositories/?max-results=200";
+        String cacheKey = apiURL + "#" + this.loadUserInfo().get("username");
+        return RepositoryCatalogCache.getInstance().getRepositories(cacheKey, this::loadRepositoryCatalog);
+    }
+
+    /**
+     * Load repository catalogue from server
+     *
+     * @param cached cached catalogue, the validators of its pages are sent with the requests
+     * @return new catalogue, or null if no page of the cached one is modified
+     */
+    private RepositoryCatalogCache.Catalog loadRepositoryCatalog(RepositoryCatalogCache.Catalog cached) {
+        // the plugin reads nothing but these, a repository without links is a fraction of the full payload
+        String listURL = ReviewBoardResource.query(apiURL + "repositories/").onlyFields("id", "name", "path", "tool").onlyLinks().build();
+        String firstPageURL = PagedListFetcher.getFirstPageURL(listURL);
+
+        List<RepositoryCatalogCache.PageValidator> cachedValidators = null == cached ? Collections.emptyList() : cached.getPageValidators();
+        HttpResult<RepositoryResponse> firstPageResult = null;
+        if (!cachedValidators.isEmpty() && firstPageURL.equals(cachedValidators.get(0).getPageURL())) {
+            RepositoryCatalogCache.PageValidator firstValidator = cachedValidators.get(0);
+            firstPageResult = this.withSession(httpClient -> httpClient.getConditionally(firstPageURL,
+                    firstValidator.getETag(), firstValidator.getLastModified(), RepositoryResponse.class));
+            // an unchanged first page means an unchanged total, the other pages are checked at the urls they were read from
+            if (firstPageResult.isNotModified()
+                    && this.isNotModified(cachedValidators.subList(1, cachedValidators.size()))) {
+                return null;
+            }
+        }
+        if (null == firstPageResult || firstPageResult.isNotModified()) {
+            firstPageResult = this.withSession(httpClient -> httpClient.getConditionally(firstPageURL, null, null, RepositoryResponse.class));
+        }
+
+        Map<String, RepositoryCatalogCache.PageValidator> remainingValidators = new ConcurrentHashMap<>();
+        RepositoryResponse repositoryResponse = PagedListFetcher.fetchRemaining(listURL, firstPageResult.getBody(), pageURL -> {
+            HttpResult<RepositoryResponse> pageResult = this.withSession(httpClient -> httpClient.getConditionally(pageURL, null, null, RepositoryResponse.class));
+            remainingValidators.put(pageURL, new RepositoryCatalogCache.PageValidator(pageURL, pageResult.getETag(), pageResult.getLastModified()));
+            return pageResult.getBody();
+        });
+        List<RepositoryCatalogCache.PageValidator> pageValidators = new ArrayList<>();
+        pageValidators.add(new RepositoryCatalogCache.PageValidator(firstPageURL, firstPageResult.getETag(), firstPageResult.getLastModified()));
+        pageValidators.addAll(remainingValidators.values());
+        return new RepositoryCatalogCache.Catalog(repositoryResponse, pageValidators);
+    }
+
+    /**
+     * Revalidate pages of the cached catalogue concurrently
+     *
+     * @param pageValidators validators of the pages
+     * @return true if the server responds 304 for every page
+     */
+    private boolean isNotModified(List<RepositoryCatalogCache.PageValidator> pageValidators) {
+        for (RepositoryCatalogCache.PageValidator pageValidator : pageValidators) {
+            if (!pageValidator.isPresent()) {
+                return false;   // server sent no validator, the page can only be read again
+            }
+        }
+        return PagedListFetcher.allMatch(pageValidators, pageValidator -> this.withSession(httpClient -> httpClient.getConditionally(
+                pageValidator.getPageURL(), pageValidator.getETag(), pageValidator.getLastModified(), RepositoryResponse.class)).isNotModified());
+    }
 
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Cookie", this.getCookie());
+    /**
+     * Run a blocking call on the client executor, cancelling the future aborts the requests of the call
+     *
+     * @param call blocking call
+     * @return future of the call result
+     */
+    private static <T> AbortableFuture<T> supplyAsync(Supplier<T> call) {
+        return AbortableFuture.supplyAsync(call, EXECUTOR);
+    }
+
+    /**
+     * Login asynchronously with the user in setting panel, the session is cached for later calls
+     *
+     * @return future of the session cookie
+     */
+    public AbortableFuture<String> loginAsync() {
+        Map<String, String> userInfo = this.loadUserInfo();
+        return supplyAsync(() -> SessionManager.getInstance().getCookie(apiURL, userInfo.get("username"), userInfo.get("password")));
+    }
+
+    /**
+     * Login asynchronously with the given user, the session is cached for later calls
+     *
+     * @param username username
+     * @param password password
+     * @return future of the session cookie
+     */
+    public AbortableFuture<String> loginAsync(String username, String password) {
+        return supplyAsync(() -> SessionManager.getInstance().getCookie(apiURL, username, password));
+    }
+
+    public AbortableFuture<RepositoryResponse> getRepositoriesAsync() {
+        return supplyAsync(this::getRepositories);
+    }
+
+    public AbortableFuture<Boolean> submitReviewAsync(ReviewParams reviewParams, ProgressIndicator progressIndicator) {
+        return supplyAsync(() -> this.submitReview(reviewParams, progressIndicator));
+    }
+
+    public AbortableFuture<ReviewRequestDraft> createNewReviewRequestAsync(String repositoryId) {
+        return supplyAsync(() -> this.createNewReviewRequest(repositoryId));
+    }
+
+    public AbortableFuture<DraftResponse> updateReviewRequestDraftAsync(ReviewParams reviewParams) {
+        return supplyAsync(() -> this.updateReviewRequestDraft(reviewParams));
+    }
+
+    public AbortableFuture<Response> uploadDiffsAsync(ReviewParams reviewParams) {
+        return supplyAsync(() -> this.uploadDiffs(reviewParams));
+    }
 
-        String response = new HttpClient(headers).get(path);
-        Gson gson = new Gson();
-        return gson.fromJson(response, RepositoryResponse.class);
+    public AbortableFuture<DraftResponse> publishReviewRequestAsync(String reviewRequestId) {
+        return supplyAsync(() -> this.publishReviewRequest(reviewRequestId));
     }
 
 }
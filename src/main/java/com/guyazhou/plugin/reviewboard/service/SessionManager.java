@@ -0,0 +1,119 @@
+package com.guyazhou.plugin.reviewboard.service;
+
+import com.guyazhou.plugin.reviewboard.exceptions.HttpStatusException;
+import com.guyazhou.plugin.reviewboard.http.HttpClient;
+import com.guyazhou.plugin.reviewboard.model.ReviewBoardResource;
+import com.guyazhou.plugin.reviewboard.model.session.SessionResponse;
+import com.intellij.openapi.application.ApplicationManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache the rbsessionid cookie per server and user, so that we do not login before every api call
+ */
+public class SessionManager {
+
+    private final Logger log = LoggerFactory.getLogger(SessionManager.class);
+
+    /**
+     * Cookie is trusted without asking server within this period
+     */
+    private static final long SESSION_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    private final Map<String, CachedSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public static SessionManager getInstance() {
+        return ApplicationManager.getApplication().getService(SessionManager.class);
+    }
+
+    /**
+     * Get session cookie of the user, login only if there is no cached session or the cached one is expired
+     *
+     * @param apiURL   review board api url
+     * @param username username
+     * @param password password
+     * @return cookie
+     */
+    public String getCookie(String apiURL, String username, String password) {
+        String sessionKey = getSessionKey(apiURL, username);
+        synchronized (locks.computeIfAbsent(sessionKey, key -> new Object())) {
+            CachedSession cachedSession = sessions.get(sessionKey);
+            if (null != cachedSession) {
+                if (!cachedSession.isExpired()) {
+                    return cachedSession.cookie;
+                }
+                if (this.isAuthenticated(apiURL, cachedSession.cookie)) {
+                    sessions.put(sessionKey, new CachedSession(cachedSession.cookie));
+                    return cachedSession.cookie;
+                }
+            }
+            log.info(String.format("Login to [ %s ] as [ %s ]", apiURL, username));
+            String cookie = ReviewBoardClient.login(apiURL, username, password);
+            sessions.put(sessionKey, new CachedSession(cookie));
+            return cookie;
+        }
+    }
+
+    /**
+     * Drop the cached session of the user, the next call will login again
+     *
+     * @param apiURL   review board api url
+     * @param username username
+     */
+    public void invalidate(String apiURL, String username) {
+        sessions.remove(getSessionKey(apiURL, username));
+    }
+
+    /**
+     * Drop all cached sessions, e.g. settings changed
+     */
+    public void invalidateAll() {
+        sessions.clear();
+    }
+
+    /**
+     * Check the cookie against /api/session/, which is much cheaper than a basic auth login
+     *
+     * @param apiURL review board api url
+     * @param cookie session cookie
+     * @return true if the session is still authenticated
+     */
+    private boolean isAuthenticated(String apiURL, String cookie) {
+        try {
+            SessionResponse sessionResponse = new HttpClient(Collections.singletonMap("Cookie", cookie)).get(ReviewBoardResource.query(apiURL + "session/").onlyFields("authenticated").onlyLinks().build(), SessionResponse.class);
+            return null != sessionResponse && sessionResponse.isOK()
+                    && null != sessionResponse.getSession() && Boolean.TRUE.equals(sessionResponse.getSession().getAuthenticated());
+        } catch (HttpStatusException e) {
+            if (e.isAuthenticationError()) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static String getSessionKey(String apiURL, String username) {
+        return apiURL + "#" + username;
+    }
+
+    private static class CachedSession {
+
+        private final String cookie;
+        private final long validatedAt;
+
+        private CachedSession(String cookie) {
+            this.cookie = cookie;
+            this.validatedAt = System.currentTimeMillis();
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - validatedAt > SESSION_TTL;
+        }
+    }
+
+}
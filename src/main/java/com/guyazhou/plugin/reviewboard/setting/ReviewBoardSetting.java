@@ -1,6 +1,8 @@
 package com.guyazhou.plugin.reviewboard.setting;
 
 import com.guyazhou.plugin.reviewboard.forms.ReviewBoardSettingForm;
+import com.guyazhou.plugin.reviewboard.http.HttpTransportManager;
+import com.guyazhou.plugin.reviewboard.service.SessionManager;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.*;
 import com.intellij.openapi.options.Configurable;
@@ -56,6 +58,46 @@ public class ReviewBoardSetting implements PersistentStateComponent<ReviewBoardS
 
         private String selectedrepository;
 
+        /**
+         * Http connection pool, max connections to one server
+         */
+        private int maxConnectionsPerRoute = 4;
+
+        /**
+         * Http connection pool, seconds before an idle connection is evicted
+         */
+        private int connectionIdleTimeout = 60;
+
+        /**
+         * Gzip the diff upload body, only for servers which decode Content-Encoding of requests
+         */
+        private boolean compressDiffUpload = false;
+
+        /**
+         * Git, the revision local changes are diffed against, e.g. HEAD or origin/master
+         */
+        private String gitDiffBase = "HEAD";
+
+        /**
+         * Svn, render diffs of changed files in background so Pre-Commit does not wait for them
+         */
+        private boolean precomputeDiffs = true;
+
+        /**
+         * Svn, spill rendered diffs of changed files to disk once the memory cache is full
+         */
+        private boolean spillDiffFragments = true;
+
+        /**
+         * A new review request whose diff is larger is split by directory into linked review requests, 0 for no limit
+         */
+        private long maxDiffBytes = 4L * 1024 * 1024;
+
+        /**
+         * A new review request whose diff has more files is split by directory into linked review requests, 0 for no limit
+         */
+        private int maxDiffFiles = 300;
+
         public String getSelectedrepository() {
             return selectedrepository;
         }
@@ -118,6 +160,70 @@ public class ReviewBoardSetting implements PersistentStateComponent<ReviewBoardS
         public void setCompanionPassword(String companionPassword) {
             this.companionPassword = companionPassword;
         }
+
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        public int getConnectionIdleTimeout() {
+            return connectionIdleTimeout;
+        }
+
+        public void setConnectionIdleTimeout(int connectionIdleTimeout) {
+            this.connectionIdleTimeout = connectionIdleTimeout;
+        }
+
+        public boolean isCompressDiffUpload() {
+            return compressDiffUpload;
+        }
+
+        public void setCompressDiffUpload(boolean compressDiffUpload) {
+            this.compressDiffUpload = compressDiffUpload;
+        }
+
+        public String getGitDiffBase() {
+            return gitDiffBase;
+        }
+
+        public void setGitDiffBase(String gitDiffBase) {
+            this.gitDiffBase = gitDiffBase;
+        }
+
+        public boolean isPrecomputeDiffs() {
+            return precomputeDiffs;
+        }
+
+        public void setPrecomputeDiffs(boolean precomputeDiffs) {
+            this.precomputeDiffs = precomputeDiffs;
+        }
+
+        public boolean isSpillDiffFragments() {
+            return spillDiffFragments;
+        }
+
+        public void setSpillDiffFragments(boolean spillDiffFragments) {
+            this.spillDiffFragments = spillDiffFragments;
+        }
+
+        public long getMaxDiffBytes() {
+            return maxDiffBytes;
+        }
+
+        public void setMaxDiffBytes(long maxDiffBytes) {
+            this.maxDiffBytes = maxDiffBytes;
+        }
+
+        public int getMaxDiffFiles() {
+            return maxDiffFiles;
+        }
+
+        public void setMaxDiffFiles(int maxDiffFiles) {
+            this.maxDiffFiles = maxDiffFiles;
+        }
     }
 
     public static String getSettingName() {
@@ -159,13 +265,22 @@ public class ReviewBoardSetting implements PersistentStateComponent<ReviewBoardS
     public boolean isModified() {
         State persistentState = ReviewBoardSetting.getInstance().getState();
         if (null == persistentState) {
+            State defaultState = new State();
             return !"".equals(reviewBoardSettingForm.getServerURL())
                     | !"".equals(reviewBoardSettingForm.getUsername())
                     | !"".equals(reviewBoardSettingForm.getPassword())
                     | !"".equals(reviewBoardSettingForm.getGroups())
                     | !"".equals(reviewBoardSettingForm.getPeople())
                     | !"".equals(reviewBoardSettingForm.getCompanionUsername())
-                    | !"".equals(reviewBoardSettingForm.getCompanionPassword());
+                    | !"".equals(reviewBoardSettingForm.getCompanionPassword())
+                    | !"HEAD".equals(reviewBoardSettingForm.getGitDiffBase())
+                    | reviewBoardSettingForm.getMaxDiffBytes() != defaultState.getMaxDiffBytes()
+                    | reviewBoardSettingForm.getMaxDiffFiles() != defaultState.getMaxDiffFiles()
+                    | reviewBoardSettingForm.isCompressDiffUpload() != defaultState.isCompressDiffUpload()
+                    | reviewBoardSettingForm.isPrecomputeDiffs() != defaultState.isPrecomputeDiffs()
+                    | reviewBoardSettingForm.isSpillDiffFragments() != defaultState.isSpillDiffFragments()
+                    | reviewBoardSettingForm.getMaxConnectionsPerRoute() != defaultState.getMaxConnectionsPerRoute()
+                    | reviewBoardSettingForm.getConnectionIdleTimeout() != defaultState.getConnectionIdleTimeout();
         } else {
             return !reviewBoardSettingForm.getServerURL().equals(persistentState.getServerURL())
                     | !reviewBoardSettingForm.getUsername().equals(persistentState.getUsername())
@@ -173,7 +288,15 @@ public class ReviewBoardSetting implements PersistentStateComponent<ReviewBoardS
                     | !reviewBoardSettingForm.getGroups().equals(persistentState.getGroups())
                     | !reviewBoardSettingForm.getPeople().equals(persistentState.getPeople())
                     | !reviewBoardSettingForm.getCompanionUsername().equals(persistentState.getCompanionUsername())
-                    | !reviewBoardSettingForm.getCompanionPassword().equals(persistentState.getCompanionPassword());
+                    | !reviewBoardSettingForm.getCompanionPassword().equals(persistentState.getCompanionPassword())
+                    | !reviewBoardSettingForm.getGitDiffBase().equals(persistentState.getGitDiffBase())
+                    | reviewBoardSettingForm.getMaxDiffBytes() != persistentState.getMaxDiffBytes()
+                    | reviewBoardSettingForm.getMaxDiffFiles() != persistentState.getMaxDiffFiles()
+                    | reviewBoardSettingForm.isCompressDiffUpload() != persistentState.isCompressDiffUpload()
+                    | reviewBoardSettingForm.isPrecomputeDiffs() != persistentState.isPrecomputeDiffs()
+                    | reviewBoardSettingForm.isSpillDiffFragments() != persistentState.isSpillDiffFragments()
+                    | reviewBoardSettingForm.getMaxConnectionsPerRoute() != persistentState.getMaxConnectionsPerRoute()
+                    | reviewBoardSettingForm.getConnectionIdleTimeout() != persistentState.getConnectionIdleTimeout();
         }
     }
 
@@ -191,6 +314,20 @@ public class ReviewBoardSetting implements PersistentStateComponent<ReviewBoardS
         persistentState.setPeople(reviewBoardSettingForm.getPeople());
         persistentState.setCompanionUsername(reviewBoardSettingForm.getCompanionUsername());
         persistentState.setCompanionPassword(reviewBoardSettingForm.getCompanionPassword());
+        persistentState.setGitDiffBase(reviewBoardSettingForm.getGitDiffBase());
+        persistentState.setMaxDiffBytes(reviewBoardSettingForm.getMaxDiffBytes());
+        persistentState.setMaxDiffFiles(reviewBoardSettingForm.getMaxDiffFiles());
+        persistentState.setCompressDiffUpload(reviewBoardSettingForm.isCompressDiffUpload());
+        persistentState.setPrecomputeDiffs(reviewBoardSettingForm.isPrecomputeDiffs());
+        persistentState.setSpillDiffFragments(reviewBoardSettingForm.isSpillDiffFragments());
+        boolean poolChanged = persistentState.getMaxConnectionsPerRoute() != reviewBoardSettingForm.getMaxConnectionsPerRoute()
+                || persistentState.getConnectionIdleTimeout() != reviewBoardSettingForm.getConnectionIdleTimeout();
+        persistentState.setMaxConnectionsPerRoute(reviewBoardSettingForm.getMaxConnectionsPerRoute());
+        persistentState.setConnectionIdleTimeout(reviewBoardSettingForm.getConnectionIdleTimeout());
+        SessionManager.getInstance().invalidateAll();  // server or accounts may have changed
+        if (poolChanged) {
+            HttpTransportManager.getInstance().reset();     // transports are recreated with the new pool settings
+        }
     }
 
     @SuppressWarnings("Duplicates")
@@ -207,6 +344,14 @@ public class ReviewBoardSetting implements PersistentStateComponent<ReviewBoardS
         reviewBoardSettingForm.setPeople(persistentState.getPeople());
         reviewBoardSettingForm.setCompanionUsername(persistentState.getCompanionUsername());
         reviewBoardSettingForm.setCompanionPassword(persistentState.getCompanionPassword());
+        reviewBoardSettingForm.setGitDiffBase(persistentState.getGitDiffBase());
+        reviewBoardSettingForm.setMaxDiffBytes(persistentState.getMaxDiffBytes());
+        reviewBoardSettingForm.setMaxDiffFiles(persistentState.getMaxDiffFiles());
+        reviewBoardSettingForm.setCompressDiffUpload(persistentState.isCompressDiffUpload());
+        reviewBoardSettingForm.setPrecomputeDiffs(persistentState.isPrecomputeDiffs());
+        reviewBoardSettingForm.setSpillDiffFragments(persistentState.isSpillDiffFragments());
+        reviewBoardSettingForm.setMaxConnectionsPerRoute(persistentState.getMaxConnectionsPerRoute());
+        reviewBoardSettingForm.setConnectionIdleTimeout(persistentState.getConnectionIdleTimeout());
     }
 
 }
@@ -1,27 +1,36 @@
 package com.guyazhou.plugin.reviewboard.tasks;
 
 import com.guyazhou.plugin.reviewboard.forms.SubmitDialogForm;
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
 import com.guyazhou.plugin.reviewboard.i18n.MessageBundleUtil;
 import com.guyazhou.plugin.reviewboard.i18n.MessageProperties;
 import com.guyazhou.plugin.reviewboard.model.repository.RepositoryResponse;
 import com.guyazhou.plugin.reviewboard.service.ReviewBoardClient;
+import com.guyazhou.plugin.reviewboard.utils.FutureUtil;
+import com.guyazhou.plugin.reviewboard.vcsprovider.DiffGroup;
 import com.guyazhou.plugin.reviewboard.vcsprovider.VcsProvider;
 import com.guyazhou.plugin.reviewboard.vcsprovider.VcsProviderFactory;
 import com.guyazhou.plugin.reviewboard.model.repository.Repository;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.shelf.ShelvedChange;
 import com.intellij.openapi.vfs.VirtualFile;
+import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author YaZhou.Gu 2018/7/23
@@ -33,31 +42,66 @@ public class PrepareVcsInfoTask extends Task.Backgroundable {
     private Project project;
     private AbstractVcs abstractVcs;
     private List<VirtualFile> toBeSubmitedFiles;
+    private Collection<Change> toBeSubmitedChanges;
+    private Collection<ShelvedChange> toBeSubmitedShelvedChanges;
 
-    public PrepareVcsInfoTask(Project project, AbstractVcs abstractVcs, List<VirtualFile> toBeSubmitedFiles) {
+    private PrepareVcsInfoTask(Project project, AbstractVcs abstractVcs) {
         super(project, "Retrive Repository Info", true);
         this.project = project;
         this.abstractVcs = abstractVcs;
+    }
+
+    public PrepareVcsInfoTask(Project project, AbstractVcs abstractVcs, List<VirtualFile> toBeSubmitedFiles) {
+        this(project, abstractVcs);
         this.toBeSubmitedFiles = toBeSubmitedFiles;
     }
 
+    /**
+     * Submit changes as they are, e.g. of the Changes view
+     */
+    public PrepareVcsInfoTask(Project project, AbstractVcs abstractVcs, Collection<Change> toBeSubmitedChanges) {
+        this(project, abstractVcs);
+        this.toBeSubmitedChanges = toBeSubmitedChanges;
+    }
+
+    /**
+     * Submit shelved changes from the patches the shelf stores, the working copy is not read.
+     * A factory, as a constructor would clash with the one of changes.
+     */
+    public static PrepareVcsInfoTask ofShelvedChanges(Project project, AbstractVcs abstractVcs, Collection<ShelvedChange> toBeSubmitedShelvedChanges) {
+        PrepareVcsInfoTask prepareVcsInfoTask = new PrepareVcsInfoTask(project, abstractVcs);
+        prepareVcsInfoTask.toBeSubmitedShelvedChanges = toBeSubmitedShelvedChanges;
+        return prepareVcsInfoTask;
+    }
+
     @Override
     public void run(@NotNull ProgressIndicator progressIndicator) {
+        CompletableFuture<RepositoryResponse> repositoriesFuture = null;
+        VcsProvider vcsProvider = null;
         try {
+            // login and repositories do not depend on the diffs, fetch them while generating diffs
+            ReviewBoardClient reviewBoardClient = new ReviewBoardClient();
+            repositoriesFuture = reviewBoardClient.getRepositoriesAsync();
+
             progressIndicator.setText("Detect vcs provider");
-            VcsProvider vcsProvider = VcsProviderFactory.getVcsProvider(abstractVcs);
+            vcsProvider = VcsProviderFactory.getVcsProvider(abstractVcs);
 
             progressIndicator.setText("Generate diffs");
-            vcsProvider.build(project, toBeSubmitedFiles);
+            if (null != toBeSubmitedShelvedChanges) {
+                vcsProvider.buildShelved(project, toBeSubmitedShelvedChanges);
+            } else if (null != toBeSubmitedChanges) {
+                vcsProvider.build(project, toBeSubmitedChanges);
+            } else {
+                vcsProvider.build(project, toBeSubmitedFiles);
+            }
 
-            String diffs = vcsProvider.getDifferences();
-            if (null == diffs) {
+            ContentSource diffSource = vcsProvider.getDiffSource();
+            if (null == diffSource || 0 == diffSource.getLength()) {
                 throw new RuntimeException("No differences detected!");
             }
 
             progressIndicator.setText("Retrive repositories");
-            ReviewBoardClient reviewBoardClient = new ReviewBoardClient();
-            RepositoryResponse repositoryResponse = reviewBoardClient.getRepositories();
+            RepositoryResponse repositoryResponse = FutureUtil.await(repositoriesFuture, progressIndicator);
             Repository[] repositories = repositoryResponse.getRepositories();
             if (repositories == null) {
                 throw new NullPointerException("Repositories fetched is null");
@@ -65,12 +109,32 @@ public class PrepareVcsInfoTask extends Task.Backgroundable {
 
             progressIndicator.setText("Find possible repository index");
             int possibleRepositoryIndex = getPossibleRepositoryIndex(vcsProvider.getRepositoryURL(), repositories);
+            List<DiffGroup> diffGroups = vcsProvider.getDiffGroups();
+            Repository[] groupRepositories = new Repository[diffGroups.size()];
+            for (int i = 0; i < diffGroups.size(); i++) {
+                int groupRepositoryIndex = getPossibleRepositoryIndex(diffGroups.get(i).getRepositoryURL(), repositories);
+                groupRepositories[i] = -1 == groupRepositoryIndex ? null : repositories[groupRepositoryIndex];
+            }
 
             // Show dialog
             ApplicationManager.getApplication()
-                    .invokeLater(new SubmitDialog(project, repositories, possibleRepositoryIndex, vcsProvider), ModalityState.NON_MODAL);
+                    .invokeLater(new SubmitDialog(project, repositories, possibleRepositoryIndex, groupRepositories, vcsProvider), ModalityState.NON_MODAL);
 
+        } catch (ProcessCanceledException e) {
+            if (null != repositoriesFuture) {
+                repositoriesFuture.cancel(true);    // aborts the repository requests still in flight, pages included
+            }
+            if (null != vcsProvider) {
+                vcsProvider.release();
+            }
+            throw e;
         } catch (Exception e) {
+            if (null != repositoriesFuture) {
+                repositoriesFuture.cancel(true);
+            }
+            if (null != vcsProvider) {
+                vcsProvider.release();
+            }
 //            NotificationUtil.notifyErrorNotification("Error Occured", e.getMessage(), project);
             ApplicationManager.getApplication().invokeLater(new Runnable() {
                 @Override
@@ -86,19 +150,21 @@ public class PrepareVcsInfoTask extends Task.Backgroundable {
         private Project project;
         private Repository[] repositories;
         private int possibleRepositoryIndex;
+        private Repository[] groupRepositories;
 
         private VcsProvider vcsProvider;
 
-        SubmitDialog(Project project, Repository[] repositories, int possibleRepositoryIndex, VcsProvider vcsProvider) {
+        SubmitDialog(Project project, Repository[] repositories, int possibleRepositoryIndex, Repository[] groupRepositories, VcsProvider vcsProvider) {
             this.project = project;
             this.repositories = repositories;
             this.possibleRepositoryIndex = possibleRepositoryIndex;
+            this.groupRepositories = groupRepositories;
             this.vcsProvider = vcsProvider;
         }
 
         @Override
         public void run() {
-            new SubmitDialogForm(project, repositories, possibleRepositoryIndex) {
+            new SubmitDialogForm(project, repositories, possibleRepositoryIndex, vcsProvider.getDiffGroups(), groupRepositories) {
                 @Override
                 protected void doOKAction() {
                     try {
@@ -112,6 +178,12 @@ public class PrepareVcsInfoTask extends Task.Backgroundable {
                     ProgressManager.getInstance().run(new SubmitReviewRequestTask(project, this, vcsProvider));
                     super.doOKAction();
                 }
+
+                @Override
+                public void doCancelAction() {
+                    vcsProvider.release();
+                    super.doCancelAction();
+                }
             }.show();
         }
     }
@@ -133,11 +205,11 @@ public class PrepareVcsInfoTask extends Task.Backgroundable {
                 break;
             }
         }
-        // try name(http://example/svn/{repoName})  // TODO reslove repositoryURL format
+        // try name(http://example/svn/{repoName}, git@example:group/{repoName}.git)  // TODO reslove repositoryURL format
         if (-1 == possibleRepositoryIndex) {
-            int i = repositoryURL.lastIndexOf('/');
+            int i = Math.max(repositoryURL.lastIndexOf('/'), repositoryURL.lastIndexOf(':'));
             if (i > -1) {
-                String shortName = repositoryURL.substring(i + 1);
+                String shortName = StringUtils.removeEnd(repositoryURL.substring(i + 1), ".git");
                 for (int j=0; j < repositories.length; j++) {
                     if ( shortName.equals(repositories[j].getName()) ) {
                         possibleRepositoryIndex = j;
@@ -1,13 +1,20 @@
 package com.guyazhou.plugin.reviewboard.tasks;
 
 import com.guyazhou.plugin.reviewboard.forms.SubmitDialogForm;
+import com.guyazhou.plugin.reviewboard.http.AbortableFuture;
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
 import com.guyazhou.plugin.reviewboard.i18n.MessageBundleUtil;
 import com.guyazhou.plugin.reviewboard.i18n.MessageProperties;
 import com.guyazhou.plugin.reviewboard.model.ReviewParams;
+import com.guyazhou.plugin.reviewboard.model.review_request.ReviewRequestDraft;
 import com.guyazhou.plugin.reviewboard.service.ReviewBoardClient;
 import com.guyazhou.plugin.reviewboard.setting.ReviewBoardSetting;
 import com.guyazhou.plugin.reviewboard.ui.NotificationUtil;
+import com.guyazhou.plugin.reviewboard.utils.FutureUtil;
+import com.guyazhou.plugin.reviewboard.vcsprovider.DiffGroup;
+import com.guyazhou.plugin.reviewboard.vcsprovider.DiffSplitter;
 import com.guyazhou.plugin.reviewboard.vcsprovider.VcsProvider;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
@@ -18,6 +25,12 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
 /**
  * @author YaZhou.Gu 2018/7/25
  */
@@ -25,13 +38,18 @@ public class SubmitReviewRequestTask extends Task.Backgroundable {
 
     private final Logger log = LoggerFactory.getLogger(SubmitReviewRequestTask.class);
 
+    /**
+     * Seconds to wait for the calls of a split diff to stop once cancelled, an aborted call stops at its next request
+     */
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
     private Project project;
     private SubmitDialogForm submitDialogForm;
     private VcsProvider vcsProvider;
 
     private boolean isSubmitSuccess = false;
 
-    private ReviewParams reviewParams;
+    private final List<ReviewParams> submittedReviewParams = new ArrayList<>();
 
 
     SubmitReviewRequestTask(Project project, SubmitDialogForm submitDialogForm, VcsProvider vcsProvider) {
@@ -43,38 +61,234 @@ public class SubmitReviewRequestTask extends Task.Backgroundable {
 
     @Override
     public void run(@NotNull ProgressIndicator progressIndicator) {
-        reviewParams = new ReviewParams();
-        if (!submitDialogForm.isNewRequest()) {
-            reviewParams.setReviewId(submitDialogForm.getExistReviewId());
+        submitDialogForm.addTextToHistory();
+
+        progressIndicator.setIndeterminate(true);
+        try {
+            if (submitDialogForm.isSeparateRequests()) {
+                // one review request per working copy, each in its own repository
+                List<DiffGroup> diffGroups = vcsProvider.getDiffGroups();
+                for (int i = 0; i < diffGroups.size(); i++) {
+                    DiffGroup diffGroup = diffGroups.get(i);
+                    if (0 == diffGroup.getDiffSource().getLength()) {
+                        continue;   // nothing changed in this working copy
+                    }
+                    ReviewParams groupReviewParams = createReviewParams(submitDialogForm.getRepositoryId(i),
+                            diffGroup.getWorkingCopyPathInRepository(), diffGroup.getRepositoryURL(), diffGroup.getDiffSource());
+                    groupReviewParams.setSummary(String.format("%s (%s)", groupReviewParams.getSummary(), diffGroup.getName()));
+                    progressIndicator.setText2(diffGroup.getName());
+                    this.submit(groupReviewParams, progressIndicator);
+                }
+            } else {
+                ReviewParams reviewParams = createReviewParams(submitDialogForm.getSelectedRepositoryId(),
+                        vcsProvider.getWorkingCopyPathInRepository(), vcsProvider.getRepositoryURL(), vcsProvider.getDiffSource());
+                if (!submitDialogForm.isNewRequest()) {
+                    reviewParams.setReviewId(submitDialogForm.getExistReviewId());
+                }
+                this.submit(reviewParams, progressIndicator);
+            }
+        } catch (Exception e) {
+            NotificationUtil.notifyErrorNotification("Submit Review Error", e.getMessage(), project);
+        }
+        isSubmitSuccess = !submittedReviewParams.isEmpty();
+
+    }
+
+    /**
+     * Submit a review request, a new one whose diff is over the budget in setting is split into linked review requests
+     *
+     * @param reviewParams      review params
+     * @param progressIndicator indicator
+     * @throws IOException if reading the diff fails
+     */
+    private void submit(ReviewParams reviewParams, ProgressIndicator progressIndicator) throws IOException {
+        ReviewBoardSetting.State state = ReviewBoardSetting.getInstance().getState();
+        List<DiffSplitter.DiffPart> diffParts = Collections.emptyList();
+        if (StringUtils.isEmpty(reviewParams.getReviewId()) && null != state) {
+            progressIndicator.setText("Measuring Diffs");
+            diffParts = DiffSplitter.split(reviewParams.getDiffSource(), state.getMaxDiffBytes(), state.getMaxDiffFiles());
+        }
+        if (diffParts.isEmpty()) {
+            if (new ReviewBoardClient().submitReview(reviewParams, progressIndicator)) {
+                submittedReviewParams.add(reviewParams);
+            }
+            return;
+        }
+        try {
+            this.submitParts(reviewParams, diffParts, progressIndicator);
+        } finally {
+            diffParts.forEach(DiffSplitter.DiffPart::close);
+        }
+    }
+
+    /**
+     * Submit the parts of a split diff, every part depends on the one before it.
+     * The review requests are created first, so the parts can be uploaded and updated concurrently.
+     * If any part fails, all the review requests of the series are discarded, a series with a part missing is of no use.
+     *
+     * @param reviewParams      review params of the whole diff
+     * @param diffParts         parts
+     * @param progressIndicator indicator
+     */
+    private void submitParts(ReviewParams reviewParams, List<DiffSplitter.DiffPart> diffParts, ProgressIndicator progressIndicator) {
+        log.info(String.format("Diff is over budget, split into %s review requests", diffParts.size()));
+        ReviewBoardClient reviewBoardClient = new ReviewBoardClient();
+
+        progressIndicator.setText(String.format("Creating %s Review Requests", diffParts.size()));
+        List<AbortableFuture<ReviewRequestDraft>> draftFutures = new ArrayList<>();
+        List<AbortableFuture<Boolean>> submitFutures = new ArrayList<>();
+        try {
+            for (int i = 0; i < diffParts.size(); i++) {
+                draftFutures.add(reviewBoardClient.createNewReviewRequestAsync(reviewParams.getRepositoryId()));
+            }
+            List<ReviewParams> partReviewParams = new ArrayList<>();
+            for (int i = 0; i < diffParts.size(); i++) {
+                ReviewRequestDraft reviewRequestDraft = FutureUtil.await(draftFutures.get(i), progressIndicator);
+                if (null == reviewRequestDraft) {
+                    throw new RuntimeException("Create new review request error from server");
+                } else if (!reviewRequestDraft.isOK()) {
+                    throw new RuntimeException(reviewRequestDraft.getErr().getCode() + ": " + reviewRequestDraft.getErr().getMsg());
+                }
+                DiffSplitter.DiffPart diffPart = diffParts.get(i);
+                ReviewParams partParams = copyReviewParams(reviewParams, diffPart.getDiffSource());
+                partParams.setReviewId(String.valueOf(reviewRequestDraft.getReview_request().getId()));
+                partParams.setSummary(String.format("%s (%s/%s %s)", reviewParams.getSummary(), i + 1, diffParts.size(), diffPart.getName()));
+                partParams.setDescription(String.format("%s%n%nPart %s of %s, %s file(s) in %s", reviewParams.getDescription(),
+                        i + 1, diffParts.size(), diffPart.getFileCount(), diffPart.getName()));
+                if (i > 0) {
+                    partParams.setDependsOn(partReviewParams.get(i - 1).getReviewId());
+                }
+                partReviewParams.add(partParams);
+            }
+
+            progressIndicator.setText(String.format("Uploading %s Diffs", diffParts.size()));
+            for (ReviewParams partParams : partReviewParams) {
+                submitFutures.add(reviewBoardClient.submitReviewAsync(partParams, progressIndicator));
+            }
+            RuntimeException error = null;
+            List<ReviewParams> submittedParts = new ArrayList<>();
+            for (int i = 0; i < submitFutures.size(); i++) {
+                try {
+                    if (FutureUtil.await(submitFutures.get(i), progressIndicator)) {
+                        submittedParts.add(partReviewParams.get(i));
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Submit review request " + partReviewParams.get(i).getReviewId() + " error", e);
+                    if (null == error) {
+                        error = e;
+                    }
+                }
+            }
+            if (null != error) {
+                throw error;
+            }
+            submittedReviewParams.addAll(submittedParts);
+        } catch (ProcessCanceledException e) {
+            log.info("Submit of the split diff is cancelled, " + this.discardParts(reviewBoardClient, draftFutures, submitFutures));
+            throw e;
+        } catch (RuntimeException e) {
+            throw new RuntimeException(e.getMessage() + "<br/>" + this.discardParts(reviewBoardClient, draftFutures, submitFutures), e);
+        }
+    }
+
+    /**
+     * Stop the calls of a split diff which are still running, then discard the review requests created for its parts.
+     * The parts are closed once this returns, no upload may be reading them any more.
+     *
+     * @param reviewBoardClient client
+     * @param draftFutures      futures of the review requests being created
+     * @param submitFutures     futures of the parts being submitted
+     * @return what is discarded and what may be left, for the user
+     */
+    private String discardParts(ReviewBoardClient reviewBoardClient, List<AbortableFuture<ReviewRequestDraft>> draftFutures,
+                                List<AbortableFuture<Boolean>> submitFutures) {
+        List<AbortableFuture<?>> futures = new ArrayList<>(submitFutures);
+        futures.addAll(draftFutures);
+        boolean stopped = FutureUtil.cancelAndAwait(futures, STOP_TIMEOUT_SECONDS);
+
+        List<String> discardedIds = new ArrayList<>();
+        List<String> leftIds = new ArrayList<>();
+        int unknownCount = 0;
+        for (AbortableFuture<ReviewRequestDraft> draftFuture : draftFutures) {
+            if (draftFuture.isCompletedExceptionally()) {
+                unknownCount++;     // cancelled or failed, the server may have created it all the same
+                continue;
+            }
+            ReviewRequestDraft reviewRequestDraft = draftFuture.getNow(null);
+            if (null == reviewRequestDraft || !reviewRequestDraft.isOK() || null == reviewRequestDraft.getReview_request()) {
+                continue;
+            }
+            String reviewId = String.valueOf(reviewRequestDraft.getReview_request().getId());
+            try {
+                reviewBoardClient.discardReviewRequest(reviewId);
+                discardedIds.add(reviewId);
+            } catch (RuntimeException e) {
+                log.warn("Discard review request " + reviewId + " error", e);
+                leftIds.add(reviewId);
+            }
         }
+        List<String> messages = new ArrayList<>();
+        if (!discardedIds.isEmpty()) {
+            messages.add(String.format("review request(s) %s of the split diff are discarded", String.join(", ", discardedIds)));
+        }
+        if (!leftIds.isEmpty()) {
+            messages.add(String.format("review request(s) %s could not be discarded, please discard them by hand", String.join(", ", leftIds)));
+        }
+        if (unknownCount > 0) {
+            messages.add(String.format("%s review request(s) were being created when the submit stopped and may be left as drafts", unknownCount));
+        }
+        if (!stopped) {
+            messages.add("some parts were still being submitted after " + STOP_TIMEOUT_SECONDS + " seconds and may still change");
+        }
+        return messages.isEmpty() ? "no review request of the split diff was created" : String.join(", ", messages);
+    }
+
+    private static ReviewParams copyReviewParams(ReviewParams reviewParams, ContentSource diffSource) {
+        ReviewParams copy = new ReviewParams();
+        copy.setSummary(reviewParams.getSummary());
+        copy.setBranch(reviewParams.getBranch());
+        copy.setBugsClosed(reviewParams.getBugsClosed());
+        copy.setGroup(reviewParams.getGroup());
+        copy.setPerson(reviewParams.getPerson());
+        copy.setDescription(reviewParams.getDescription());
+        copy.setRepositoryId(reviewParams.getRepositoryId());
+        copy.setDraft(reviewParams.isDraft());
+        copy.setSvnBasePath(reviewParams.getSvnBasePath());
+        copy.setSvnRoot(reviewParams.getSvnRoot());
+        copy.setDiffSource(diffSource);
+        return copy;
+    }
+
+    /**
+     * Create review params from the dialog
+     *
+     * @param repositoryId                review board repository id
+     * @param workingCopyPathInRepository path of the working copy in repository
+     * @param repositoryURL               repository url
+     * @param diffSource                  diff
+     * @return review params
+     */
+    private ReviewParams createReviewParams(int repositoryId, String workingCopyPathInRepository, String repositoryURL, ContentSource diffSource) {
+        ReviewParams reviewParams = new ReviewParams();
         reviewParams.setSummary(submitDialogForm.getSummary());
         reviewParams.setBranch(submitDialogForm.getBranch());
         reviewParams.setBugsClosed(submitDialogForm.getBug());
         reviewParams.setGroup(submitDialogForm.getGroups());
         reviewParams.setPerson(submitDialogForm.getPeople());
         reviewParams.setDescription(submitDialogForm.getDescription());
-        reviewParams.setRepositoryId( String.valueOf(submitDialogForm.getSelectedRepositoryId()) );
+        reviewParams.setRepositoryId( String.valueOf(repositoryId) );
         reviewParams.setDraft(submitDialogForm.isDraft());
-        if (null == vcsProvider.getWorkingCopyPathInRepository()) {
+        if (null == workingCopyPathInRepository) {
             reviewParams.setSvnBasePath("");
         } else {
-            reviewParams.setSvnBasePath(vcsProvider.getWorkingCopyPathInRepository());
+            reviewParams.setSvnBasePath(workingCopyPathInRepository);
         }
         if (StringUtils.isEmpty(reviewParams.getSvnBasePath())) {
             reviewParams.setSvnBasePath("/");
         }
-        reviewParams.setSvnRoot(vcsProvider.getRepositoryURL());
-        reviewParams.setDiff(vcsProvider.getDifferences());
-
-        submitDialogForm.addTextToHistory();
-
-        progressIndicator.setIndeterminate(true);
-        try {
-            isSubmitSuccess = new ReviewBoardClient().submitReview(reviewParams, progressIndicator);
-        } catch (Exception e) {
-            NotificationUtil.notifyErrorNotification("Submit Review Error", e.getMessage(), project);
-        }
-
+        reviewParams.setSvnRoot(repositoryURL);
+        reviewParams.setDiffSource(diffSource);
+        return reviewParams;
     }
 
     @Override
@@ -82,6 +296,11 @@ public class SubmitReviewRequestTask extends Task.Backgroundable {
         super.onCancel();
     }
 
+    @Override
+    public void onFinished() {
+        vcsProvider.release();  // diff is uploaded or given up, drop the spooled copy
+    }
+
     @Override
     public void onSuccess() {
         if (!isSubmitSuccess) {
@@ -93,22 +312,28 @@ public class SubmitReviewRequestTask extends Task.Backgroundable {
             Messages.showErrorDialog("Review setting state is null, why?", MessageBundleUtil.getBundle().getString(MessageProperties.MESSAGE_TITLE_WARNING));
             return;
         }
-        String reviewUrl = String.format("%sr/%s", persistentState.getServerURL(), reviewParams.getReviewId());
 
         boolean autoReview = false;
-        String description = reviewParams.getDescription();
+        String description = submittedReviewParams.get(0).getDescription();
         if (description.contains("#ar#")) {
             autoReview = true;
         }
 
+        StringBuilder reviewInfo = new StringBuilder();
+        for (ReviewParams reviewParams : submittedReviewParams) {
+            String reviewUrl = getReviewUrl(persistentState, reviewParams);
+            if (reviewInfo.length() > 0) {
+                reviewInfo.append("<br/>");
+            }
+            reviewInfo.append(String.format("Review ID: %s<br/>Review URL: <a href=\"%s\">%s</a>", reviewParams.getReviewId(), reviewUrl, reviewUrl));
+        }
+
         if (autoReview) {
-            autoReview(reviewUrl);
+            autoReview(persistentState);
         } else {
-            String successInfoMsg = String.format("Review ID: %s"
-                            + "<br/>Review URL: <a href=\"%s\">%s</a>"
+            String successInfoMsg = String.format("%s"
                             + "%s"
-                    , reviewParams.getReviewId()
-                    , reviewUrl, reviewUrl
+                    , reviewInfo
                     , "<br/>diff --old " + vcsProvider.getDiffPaths()
             );
             NotificationUtil.notifyInformationNotifaction("Submit Review Successfully", successInfoMsg, project);
@@ -116,8 +341,13 @@ public class SubmitReviewRequestTask extends Task.Backgroundable {
 
     }
 
-    private void autoReview(String reviewUrl) {
-        String autoReviewMessage = String.format("Submit Review Successfully!\nReview URL: %s\nShip it?", reviewUrl);
+    private static String getReviewUrl(ReviewBoardSetting.State persistentState, ReviewParams reviewParams) {
+        return String.format("%sr/%s", persistentState.getServerURL(), reviewParams.getReviewId());
+    }
+
+    private void autoReview(ReviewBoardSetting.State persistentState) {
+        String reviewUrls = submittedReviewParams.stream().map(reviewParams -> getReviewUrl(persistentState, reviewParams)).collect(Collectors.joining("\n"));
+        String autoReviewMessage = String.format("Submit Review Successfully!\nReview URL: %s\nShip it?", reviewUrls);
         int result = Messages.showYesNoDialog(autoReviewMessage, "Auto Ship?", "Ship It", "No", Messages.getQuestionIcon());
 
 //        UIUtil.invokeAndWaitIfNeeded(new Runnable() {
@@ -127,12 +357,15 @@ public class SubmitReviewRequestTask extends Task.Backgroundable {
 //        });
 
         String title;
-        if (result == Messages.OK) {
-            ProgressManager.getInstance().run(new AutoShipTask(project, reviewUrl, reviewParams));
-        } else {
-            title = "Submit Review Successfully";
-            NotificationUtil.notifyInformationNotifaction(title,
-                    String.format("Review ID: %s<br/>Review URL: <a href=\"%s\">%s</a>", reviewParams.getReviewId(), reviewUrl, reviewUrl), project);
+        for (ReviewParams reviewParams : submittedReviewParams) {
+            String reviewUrl = getReviewUrl(persistentState, reviewParams);
+            if (result == Messages.OK) {
+                ProgressManager.getInstance().run(new AutoShipTask(project, reviewUrl, reviewParams));
+            } else {
+                title = "Submit Review Successfully";
+                NotificationUtil.notifyInformationNotifaction(title,
+                        String.format("Review ID: %s<br/>Review URL: <a href=\"%s\">%s</a>", reviewParams.getReviewId(), reviewUrl, reviewUrl), project);
+            }
         }
 
     }
@@ -0,0 +1,91 @@
+package com.guyazhou.plugin.reviewboard.utils;
+
+import com.guyazhou.plugin.reviewboard.http.AbortableFuture;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waiting for and stopping async calls
+ */
+public class FutureUtil {
+
+    private static final Logger log = LoggerFactory.getLogger(FutureUtil.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    /**
+     * Wait for a future while keeping the progress indicator responsive,
+     * the future is cancelled if the indicator is cancelled
+     *
+     * @param future            future
+     * @param progressIndicator indicator
+     * @return result of the future
+     */
+    public static <T> T await(CompletableFuture<T> future, ProgressIndicator progressIndicator) {
+        while (true) {
+            try {
+                progressIndicator.checkCanceled();
+            } catch (RuntimeException e) {
+                future.cancel(true);
+                throw e;
+            }
+            try {
+                return future.get(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // keep polling
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Cancel calls and wait until none of them is running any more, so what they read can be released
+     *
+     * @param futures        futures of the calls
+     * @param timeoutSeconds seconds to wait for all of them
+     * @return true if all calls stopped in time
+     */
+    public static boolean cancelAndAwait(Collection<? extends AbortableFuture<?>> futures, long timeoutSeconds) {
+        futures.forEach(future -> future.cancel(true));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        boolean interrupted = false;
+        try {
+            for (AbortableFuture<?> future : futures) {
+                while (true) {
+                    try {
+                        if (!future.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                            log.warn("Cancelled call is still running after " + timeoutSeconds + " seconds");
+                            return false;
+                        }
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;     // stopping must finish, the interrupt is restored after
+                    }
+                }
+            }
+            return true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -1,16 +1,83 @@
 package com.guyazhou.plugin.reviewboard.utils;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.guyazhou.plugin.reviewboard.model.Response;
+import com.guyazhou.plugin.reviewboard.model.draft.DraftResponse;
+import com.guyazhou.plugin.reviewboard.model.repository.RepositoryResponse;
+import com.guyazhou.plugin.reviewboard.model.repository.RepositoryTypeAdapter;
+import com.guyazhou.plugin.reviewboard.model.review_request.ReviewRequestDraft;
+import com.guyazhou.plugin.reviewboard.model.session.SessionResponse;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 
 /**
+ * Json util, one shared Gson whose type adapters are built once
+ *
  * @author YaZhou.Gu 2018/8/8
  */
 public class JsonUtil {
 
-    private static final Gson GSON = new Gson();
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(RepositoryTypeAdapter.FACTORY)
+            .create();
+
+    static {
+        // build the reflective adapters up front, not on the first response
+        GSON.getAdapter(Response.class);
+        GSON.getAdapter(RepositoryResponse.class);
+        GSON.getAdapter(DraftResponse.class);
+        GSON.getAdapter(ReviewRequestDraft.class);
+        GSON.getAdapter(SessionResponse.class);
+    }
+
+    public static Gson getGson() {
+        return GSON;
+    }
 
     public static String getString(Object object) {
         return GSON.toJson(object);
     }
 
+    /**
+     * Parse json string
+     *
+     * @param json json string
+     * @param type object type
+     * @return object, null if json is empty
+     */
+    public static <T> T fromJson(String json, Class<T> type) {
+        if (null == json) {
+            return null;
+        }
+        return fromJson(new StringReader(json), type);
+    }
+
+    /**
+     * Parse json from a utf-8 stream, the stream is not closed
+     *
+     * @param inputStream json stream
+     * @param type        object type
+     * @return object, null if stream is empty
+     */
+    public static <T> T fromJson(InputStream inputStream, Class<T> type) {
+        return fromJson(new InputStreamReader(inputStream, StandardCharsets.UTF_8), type);
+    }
+
+    /**
+     * Parse json from a reader token by token, the reader is not closed
+     *
+     * @param reader json reader
+     * @param type   object type
+     * @return object, null if reader is empty
+     */
+    public static <T> T fromJson(Reader reader, Class<T> type) {
+        return GSON.fromJson(new JsonReader(reader), type);
+    }
+
 }
@@ -0,0 +1,86 @@
+package com.guyazhou.plugin.reviewboard.utils;
+
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
+import com.intellij.openapi.vfs.newvfs.RefreshQueue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refresh the selected files in one batch before generating diffs
+ */
+public class VfsRefreshUtil {
+
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    /**
+     * Refresh files recursively in one asynchronous batch and wait until it is done.
+     * Files under a selected directory are not refreshed again, of their ancestors only the dirty ones are refreshed,
+     * not recursively, so files created or deleted next to the selection are seen.
+     *
+     * @param virtualFiles selected files
+     */
+    public static void refresh(Collection<VirtualFile> virtualFiles) {
+        Set<VirtualFile> selected = new HashSet<>(virtualFiles);
+        List<VirtualFile> files = new ArrayList<>();
+        Set<VirtualFile> dirtyAncestors = new LinkedHashSet<>();
+        for (VirtualFile virtualFile : virtualFiles) {
+            if (null == virtualFile || hasSelectedAncestor(virtualFile, selected)) {
+                continue;
+            }
+            files.add(virtualFile);
+            collectDirtyAncestors(virtualFile, dirtyAncestors);
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+
+        Semaphore done = new Semaphore(0);
+        int batches = 1;
+        // any modality, the finish callbacks only release the waiting thread
+        if (!dirtyAncestors.isEmpty()) {
+            RefreshQueue.getInstance().refresh(true, false, done::release, ModalityState.any(), dirtyAncestors);
+            batches++;
+        }
+        RefreshQueue.getInstance().refresh(true, true, done::release, ModalityState.any(), files);
+        try {
+            while (!done.tryAcquire(batches, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                ProgressManager.checkCanceled();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Refresh files interrupted");
+        }
+    }
+
+    private static boolean hasSelectedAncestor(VirtualFile virtualFile, Set<VirtualFile> selected) {
+        for (VirtualFile parent = virtualFile.getParent(); null != parent; parent = parent.getParent()) {
+            if (selected.contains(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collect the ancestors marked dirty, a dirty file marks its parents dirty up to the first clean one
+     */
+    private static void collectDirtyAncestors(VirtualFile virtualFile, Set<VirtualFile> dirtyAncestors) {
+        for (VirtualFile parent = virtualFile.getParent(); parent instanceof NewVirtualFile && ((NewVirtualFile) parent).isDirty();
+             parent = parent.getParent()) {
+            if (!dirtyAncestors.add(parent)) {
+                return;     // the rest of the chain came in through a sibling
+            }
+        }
+    }
+
+}
@@ -1,10 +1,26 @@
 package com.guyazhou.plugin.reviewboard.vcsprovider;
 
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
+import com.guyazhou.plugin.reviewboard.http.SpooledContentSource;
+import com.guyazhou.plugin.reviewboard.utils.VfsRefreshUtil;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.shelf.ShelvedChange;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 /**
  * Abstract vcs provider
@@ -13,14 +29,24 @@ import java.util.List;
  */
 public abstract class AbstractVcsProvider implements VcsProvider {
 
+    /**
+     * Runs the diffs of the working copies other than the first one
+     */
+    private static final ExecutorService DIFF_EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor("Review Board Diff", 4);
+
     protected AbstractVcs abstractVcs;
-    private String differences;
+    private ContentSource diffSource;
     protected String repositoryURL;
     protected String workingCopyPathInRepository;
     protected String workingCopyDir;
 
     protected String diffPaths;
 
+    /**
+     * Selected files grouped by working copy, set along with the fields above which describe the first group
+     */
+    protected List<DiffGroup> diffGroups;
+
     protected AbstractVcsProvider(AbstractVcs abstractVcs) {
         this.abstractVcs = abstractVcs;
     }
@@ -31,20 +57,124 @@ public abstract class AbstractVcsProvider implements VcsProvider {
     }
 
     /**
-     * Set some vcs info and generate differeces
+     * Set some vcs info and generate differeces, working copies are diffed in parallel
      *
      * @param project current project
      * @param virtualFiles selected files
      */
     @Override
     public void build(Project project, List<VirtualFile> virtualFiles) {
+        // one batched refresh for the whole selection instead of refreshing file by file
+        VfsRefreshUtil.refresh(virtualFiles);
         setRepositoryRootAndWorkingCopyPath(project, virtualFiles);
-        differences = generateDifferences(project, virtualFiles);
+        buildDiffGroups(project);
     }
 
+    /**
+     * Set some vcs info and generate differences of changes as they are, working copies are diffed in parallel
+     *
+     * @param project current project
+     * @param changes selected changes
+     */
     @Override
-    public String getDifferences() {
-        return this.differences;
+    public void build(Project project, Collection<Change> changes) {
+        if (null == changes || changes.isEmpty()) {
+            throw new RuntimeException("No change is selected");
+        }
+        setRepositoryRootAndWorkingCopyPath(project, changes);
+        buildDiffGroups(project);
+    }
+
+    /**
+     * Set some vcs info and generate differences of shelved changes from the patches the shelf stores, working copies are diffed in parallel
+     *
+     * @param project current project
+     * @param shelvedChanges selected shelved changes
+     */
+    @Override
+    public void buildShelved(Project project, Collection<ShelvedChange> shelvedChanges) {
+        if (null == shelvedChanges || shelvedChanges.isEmpty()) {
+            throw new RuntimeException("No shelved change is selected");
+        }
+        setRepositoryRootAndWorkingCopyPathOfShelf(project, shelvedChanges);
+        buildDiffGroups(project);
+    }
+
+    private void buildDiffGroups(Project project) {
+        if (null == diffGroups || diffGroups.isEmpty()) {
+            throw new RuntimeException("No working copy found for file(s)");
+        }
+
+        // the first working copy is diffed on the calling thread, the others on the diff pool
+        ProgressIndicator progressIndicator = ProgressManager.getInstance().getProgressIndicator();
+        List<CompletableFuture<Void>> groupFutures = new ArrayList<>();
+        try {
+            for (DiffGroup diffGroup : diffGroups.subList(1, diffGroups.size())) {
+                groupFutures.add(CompletableFuture.runAsync(() -> ProgressManager.getInstance().executeProcessUnderProgress(
+                        () -> buildGroup(project, diffGroup), progressIndicator), DIFF_EXECUTOR));
+            }
+            buildGroup(project, diffGroups.get(0));
+            for (CompletableFuture<Void> groupFuture : groupFutures) {
+                groupFuture.join();
+            }
+        } catch (RuntimeException e) {
+            groupFutures.forEach(groupFuture -> groupFuture.cancel(true));
+            this.release();
+            if (e instanceof CompletionException && e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        if (1 == diffGroups.size()) {
+            diffSource = diffGroups.get(0).getDiffSource();
+        } else {
+            diffSource = ContentSource.concat(diffGroups.stream().map(DiffGroup::getDiffSource).collect(Collectors.toList()));
+        }
+    }
+
+    private void buildGroup(Project project, DiffGroup diffGroup) {
+        SpooledContentSource spooledContentSource = new SpooledContentSource();
+        diffGroup.setDiffSource(spooledContentSource);
+        try (Writer writer = spooledContentSource.openWriter()) {
+            generateDifferences(project, diffGroup, writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Release the diffs, spilled diff files are deleted
+     */
+    @Override
+    public void release() {
+        if (null != diffGroups) {
+            for (DiffGroup diffGroup : diffGroups) {
+                if (null != diffGroup.getDiffSource()) {
+                    closeQuietly(diffGroup.getDiffSource());
+                    diffGroup.setDiffSource(null);
+                }
+            }
+        }
+        diffSource = null;
+    }
+
+    private static void closeQuietly(SpooledContentSource spooledContentSource) {
+        try {
+            spooledContentSource.close();
+        } catch (IOException ignored) {
+            // a leftover spill file is swept on the next start
+        }
+    }
+
+    @Override
+    public ContentSource getDiffSource() {
+        return this.diffSource;
+    }
+
+    @Override
+    public List<DiffGroup> getDiffGroups() {
+        return this.diffGroups;
     }
 
     @Override
@@ -58,7 +188,8 @@ public abstract class AbstractVcsProvider implements VcsProvider {
     }
 
     /**
-     * Set repository root url and working copy path in repository according to the given selected virtual files
+     * Set repository root url and working copy path in repository according to the given selected virtual files,
+     * and group the files by working copy
      *
      * @param project project
      * @param virtualFiles selected files
@@ -66,13 +197,34 @@ public abstract class AbstractVcsProvider implements VcsProvider {
     protected abstract void setRepositoryRootAndWorkingCopyPath(Project project, List<VirtualFile> virtualFiles);
 
     /**
-     * Generate differences between local and remote repository
+     * Set repository root url and working copy path in repository according to the given selected changes,
+     * and group the changes by working copy
+     *
+     * @param project project
+     * @param changes selected changes
+     */
+    protected abstract void setRepositoryRootAndWorkingCopyPath(Project project, Collection<Change> changes);
+
+    /**
+     * Set repository root url and working copy path in repository according to the given shelved changes,
+     * and group their stored patches by working copy, a vcs which diffs only its working copy can not submit a shelf
+     *
+     * @param project project
+     * @param shelvedChanges selected shelved changes
+     */
+    protected void setRepositoryRootAndWorkingCopyPathOfShelf(Project project, Collection<ShelvedChange> shelvedChanges) {
+        throw new RuntimeException(String.format("Shelved changes of [ %s ] can not be submitted, please unshelve them first", abstractVcs.getName()));
+    }
+
+    /**
+     * Generate differences between local and remote repository of a working copy
      *
      * @param project current project
-     * @param virtualFiles virtural files
-     * @return diff string
+     * @param diffGroup files of the working copy
+     * @param writer diff is written here
+     * @throws IOException if writing fails
      */
-    protected abstract String generateDifferences(Project project, List<VirtualFile> virtualFiles);
+    protected abstract void generateDifferences(Project project, DiffGroup diffGroup, Writer writer) throws IOException;
     @Override
     public String getDiffPaths() {
         return this.diffPaths;
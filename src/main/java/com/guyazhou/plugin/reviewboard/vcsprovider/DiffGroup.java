@@ -0,0 +1,99 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider;
+
+import com.guyazhou.plugin.reviewboard.http.SpooledContentSource;
+import com.intellij.openapi.diff.impl.patch.TextFilePatch;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selected files or changes of one working copy and the diff generated for them
+ */
+public class DiffGroup {
+
+    private final String workingCopyDir;
+    private final String repositoryURL;
+    private final String workingCopyPathInRepository;
+    private final List<VirtualFile> virtualFiles = new ArrayList<>();
+    private final List<Change> changes = new ArrayList<>();
+    private final List<TextFilePatch> shelvedPatches = new ArrayList<>();
+    private SpooledContentSource diffSource;
+
+    /**
+     * @param workingCopyDir              local working copy root
+     * @param repositoryURL               repository url, used to match the review board repository
+     * @param workingCopyPathInRepository path of the working copy in repository, empty if at the root
+     */
+    public DiffGroup(String workingCopyDir, String repositoryURL, String workingCopyPathInRepository) {
+        this.workingCopyDir = workingCopyDir;
+        this.repositoryURL = repositoryURL;
+        this.workingCopyPathInRepository = workingCopyPathInRepository;
+    }
+
+    /**
+     * Get the display name, the name of the working copy directory
+     *
+     * @return name
+     */
+    public String getName() {
+        int i = workingCopyDir.replace('\\', '/').lastIndexOf('/');
+        return -1 == i ? workingCopyDir : workingCopyDir.substring(i + 1);
+    }
+
+    public String getWorkingCopyDir() {
+        return workingCopyDir;
+    }
+
+    public String getRepositoryURL() {
+        return repositoryURL;
+    }
+
+    public String getWorkingCopyPathInRepository() {
+        return workingCopyPathInRepository;
+    }
+
+    public List<VirtualFile> getVirtualFiles() {
+        return virtualFiles;
+    }
+
+    /**
+     * Get the changes when submitted from changes, the virtual files are empty then
+     *
+     * @return changes
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Get the patches when submitted from a shelf, paths relative to the working copy dir, the virtual files and changes are empty then
+     *
+     * @return shelved patches
+     */
+    public List<TextFilePatch> getShelvedPatches() {
+        return shelvedPatches;
+    }
+
+    /**
+     * Get the number of files, of the changes or shelved patches when submitted from those, otherwise of the virtual files
+     *
+     * @return file count
+     */
+    public int getFileCount() {
+        if (!changes.isEmpty()) {
+            return changes.size();
+        }
+        return shelvedPatches.isEmpty() ? virtualFiles.size() : shelvedPatches.size();
+    }
+
+    public SpooledContentSource getDiffSource() {
+        return diffSource;
+    }
+
+    void setDiffSource(SpooledContentSource diffSource) {
+        this.diffSource = diffSource;
+    }
+
+}
@@ -0,0 +1,343 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider;
+
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
+import com.guyazhou.plugin.reviewboard.http.SpooledContentSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Splits a diff which is over budget into parts by directory, for several linked review requests.
+ * The diff is streamed twice, once to measure the file sections and once to route them into the parts,
+ * it is never held in memory as a whole.
+ */
+public class DiffSplitter {
+
+    /**
+     * File section headers, svn diffs as written by the diff writer and git diffs
+     */
+    private static final String SVN_HEADER = "Index: ";
+    private static final String GIT_HEADER = "diff --git a/";
+
+    private DiffSplitter() {
+    }
+
+    /**
+     * Split a diff if it is over budget, sections of a directory stay together unless the directory alone is over budget
+     *
+     * @param diffSource diff
+     * @param maxBytes   byte budget of a part, 0 for no limit
+     * @param maxFiles   file budget of a part, 0 for no limit
+     * @return parts in path order, empty if the diff is within budget
+     * @throws IOException if reading the diff fails
+     */
+    public static List<DiffPart> split(ContentSource diffSource, long maxBytes, int maxFiles) throws IOException {
+        Map<String, Long> sectionBytes = new TreeMap<>();
+        try (SectionOutputStream measureStream = new SectionOutputStream() {
+            @Override
+            protected void onLine(String path, byte[] line, int length) {
+                sectionBytes.merge(path, (long) length, Long::sum);
+            }
+        }) {
+            diffSource.writeTo(measureStream);
+        }
+
+        List<FileEntry> entries = new ArrayList<>();
+        sectionBytes.forEach((path, bytes) -> entries.add(new FileEntry(path, bytes)));
+        Budget budget = new Budget(maxBytes, maxFiles);
+        if (budget.fits(entries)) {
+            return Collections.emptyList();
+        }
+
+        List<List<FileEntry>> units = new ArrayList<>();
+        collectUnits(entries, 1, budget, units);
+        List<List<FileEntry>> partEntries = new ArrayList<>();
+        long partBytes = 0;
+        int partFiles = 0;
+        for (List<FileEntry> unit : units) {
+            long unitBytes = sumBytes(unit);
+            int unitFiles = countFiles(unit);
+            if (partEntries.isEmpty() || !budget.fits(partBytes + unitBytes, partFiles + unitFiles)) {
+                partEntries.add(new ArrayList<>());
+                partBytes = 0;
+                partFiles = 0;
+            }
+            partEntries.get(partEntries.size() - 1).addAll(unit);
+            partBytes += unitBytes;
+            partFiles += unitFiles;
+        }
+        if (partEntries.size() < 2) {
+            return Collections.emptyList();   // one file over budget, nothing to split
+        }
+
+        Map<String, Integer> partIndexes = new HashMap<>();
+        List<DiffPart> diffParts = new ArrayList<>();
+        List<OutputStream> partStreams = new ArrayList<>();
+        try {
+            for (List<FileEntry> part : partEntries) {
+                for (FileEntry entry : part) {
+                    partIndexes.put(entry.path, diffParts.size());
+                }
+                DiffPart diffPart = new DiffPart(getName(part), countFiles(part), new SpooledContentSource());
+                diffParts.add(diffPart);
+                partStreams.add(diffPart.diffSource.openOutputStream());
+            }
+            try (SectionOutputStream routeStream = new SectionOutputStream() {
+                @Override
+                protected void onLine(String path, byte[] line, int length) throws IOException {
+                    partStreams.get(partIndexes.get(path)).write(line, 0, length);
+                }
+            }) {
+                diffSource.writeTo(routeStream);
+            }
+            for (OutputStream partStream : partStreams) {
+                partStream.close();     // seals the part
+            }
+        } catch (IOException | RuntimeException e) {
+            for (DiffPart diffPart : diffParts) {
+                diffPart.close();
+            }
+            throw e;
+        }
+        return diffParts;
+    }
+
+    /**
+     * Group entries into units within budget, by the first directories of their paths and deeper while a group is over budget.
+     * A directory whose own files are over budget is split file by file.
+     */
+    private static void collectUnits(List<FileEntry> group, int depth, Budget budget, List<List<FileEntry>> units) {
+        if (budget.fits(group)) {
+            units.add(group);
+            return;
+        }
+        Map<String, List<FileEntry>> children = new LinkedHashMap<>();
+        boolean deeper = false;
+        for (FileEntry entry : group) {
+            String[] directories = getDirectories(entry.path);
+            deeper |= directories.length >= depth;
+            String prefix = String.join("/", directories.length > depth ? Arrays.copyOf(directories, depth) : directories);
+            children.computeIfAbsent(prefix, key -> new ArrayList<>()).add(entry);
+        }
+        if (!deeper || 1 == group.size()) {
+            for (FileEntry entry : group) {
+                units.add(Collections.singletonList(entry));
+            }
+            return;
+        }
+        for (List<FileEntry> child : children.values()) {
+            collectUnits(child, depth + 1, budget, units);
+        }
+    }
+
+    private static String[] getDirectories(String path) {
+        int i = path.lastIndexOf('/');
+        return -1 == i ? new String[0] : path.substring(0, i).split("/");
+    }
+
+    /**
+     * Get the name of a part, the common directory of its files
+     */
+    private static String getName(List<FileEntry> part) {
+        String[] common = null;
+        for (FileEntry entry : part) {
+            if (entry.path.isEmpty()) {
+                continue;
+            }
+            String[] directories = getDirectories(entry.path);
+            if (null == common) {
+                common = directories;
+                continue;
+            }
+            int n = 0;
+            while (n < common.length && n < directories.length && common[n].equals(directories[n])) {
+                n++;
+            }
+            common = Arrays.copyOf(common, n);
+        }
+        return null == common || 0 == common.length ? "/" : String.join("/", common);
+    }
+
+    private static long sumBytes(List<FileEntry> entries) {
+        long bytes = 0;
+        for (FileEntry entry : entries) {
+            bytes += entry.bytes;
+        }
+        return bytes;
+    }
+
+    private static int countFiles(List<FileEntry> entries) {
+        int files = 0;
+        for (FileEntry entry : entries) {
+            if (!entry.path.isEmpty()) {
+                files++;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Path of the file section a header line starts, null if the line is no header
+     */
+    private static String getHeaderPath(byte[] line, int length) {
+        if (!startsWith(line, length, SVN_HEADER) && !startsWith(line, length, GIT_HEADER)) {
+            return null;
+        }
+        String header = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+        if (header.startsWith(SVN_HEADER)) {
+            return header.substring(SVN_HEADER.length()).replace('\\', '/');
+        }
+        String paths = header.substring(GIT_HEADER.length());
+        int i = paths.indexOf(" b/");
+        return -1 == i ? paths : paths.substring(0, i);
+    }
+
+    private static boolean startsWith(byte[] line, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class FileEntry {
+
+        private final String path;
+        private final long bytes;
+
+        /**
+         * @param path  file path, empty for lines before the first file section
+         * @param bytes bytes of the file sections
+         */
+        private FileEntry(String path, long bytes) {
+            this.path = path;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Budget {
+
+        private final long maxBytes;
+        private final int maxFiles;
+
+        private Budget(long maxBytes, int maxFiles) {
+            this.maxBytes = maxBytes;
+            this.maxFiles = maxFiles;
+        }
+
+        private boolean fits(List<FileEntry> entries) {
+            return fits(sumBytes(entries), countFiles(entries));
+        }
+
+        private boolean fits(long bytes, int files) {
+            return (maxBytes <= 0 || bytes <= maxBytes) && (maxFiles <= 0 || files <= maxFiles);
+        }
+    }
+
+    /**
+     * Hands the diff over line by line with the path of the file section the line belongs to
+     */
+    private abstract static class SectionOutputStream extends OutputStream {
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private String path = "";
+
+        protected abstract void onLine(String path, byte[] line, int length) throws IOException;
+
+        @Override
+        public void write(int b) throws IOException {
+            line.write(b);
+            if ('\n' == b) {
+                this.endLine();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if ('\n' == b[i]) {
+                    line.write(b, start, i + 1 - start);
+                    this.endLine();
+                    start = i + 1;
+                }
+            }
+            line.write(b, start, off + len - start);
+        }
+
+        private void endLine() throws IOException {
+            byte[] bytes = line.toByteArray();
+            String headerPath = getHeaderPath(bytes, bytes.length);
+            if (null != headerPath) {
+                path = headerPath;
+            }
+            onLine(path, bytes, bytes.length);
+            line.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (line.size() > 0) {
+                this.endLine();
+            }
+        }
+    }
+
+    /**
+     * A part of a split diff, spooled in memory or to disk
+     */
+    public static class DiffPart implements Closeable {
+
+        private final String name;
+        private final int fileCount;
+        private final SpooledContentSource diffSource;
+
+        private DiffPart(String name, int fileCount, SpooledContentSource diffSource) {
+            this.name = name;
+            this.fileCount = fileCount;
+            this.diffSource = diffSource;
+        }
+
+        /**
+         * Get the name, the common directory of the files in the part
+         *
+         * @return name
+         */
+        public String getName() {
+            return name;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public ContentSource getDiffSource() {
+            return diffSource;
+        }
+
+        @Override
+        public void close() {
+            try {
+                diffSource.close();
+            } catch (IOException ignored) {
+                // a leftover spill file is swept on the next start
+            }
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider;
+
+import com.intellij.openapi.diff.impl.patch.FilePatch;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.changes.Change;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Platform api whose signature differs between IDE builds.
+ * Entry points are resolved once and kept as method handles adapted to one signature.
+ */
+public class PlatformCompat {
+
+    private static final Logger log = LoggerFactory.getLogger(PlatformCompat.class);
+
+    private static final String IDEA_TEXT_PATCH_BUILDER = "com.intellij.openapi.diff.impl.patch.IdeaTextPatchBuilder";
+
+    /**
+     * buildPatch(Project, Collection, String basePath, boolean reversePatch) -> List
+     */
+    private static final MethodType BUILD_PATCH_TYPE = MethodType.methodType(List.class, Project.class, Collection.class, String.class, boolean.class);
+
+    private static final MethodHandle BUILD_PATCH = resolveBuildPatch();
+
+    private PlatformCompat() {
+    }
+
+    /**
+     * Build file patches of changes with the patch builder of the running IDE
+     *
+     * @param project      current project
+     * @param changes      changes
+     * @param basePath     base path of the patch
+     * @param reversePatch reverse patch
+     * @return file patches
+     */
+    @SuppressWarnings("unchecked")
+    public static List<FilePatch> buildPatch(Project project, Collection<Change> changes, String basePath, boolean reversePatch) {
+        if (null == BUILD_PATCH) {
+            throw new RuntimeException("BuildPatch method is not found in this IDE");
+        }
+        try {
+            return (List<FilePatch>) BUILD_PATCH.invokeExact(project, (Collection) changes, basePath, reversePatch);
+        } catch (RuntimeException | Error e) {
+            throw e;    // cancellation must go through as is
+        } catch (Throwable e) {
+            throw new RuntimeException("BuildPatch method invocation error, " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Resolve IdeaTextPatchBuilder.buildPatch, newest signature first
+     *
+     * @return handle of BUILD_PATCH_TYPE, null if none found
+     */
+    private static MethodHandle resolveBuildPatch() {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Class<?> builderClass;
+        try {
+            builderClass = Class.forName(IDEA_TEXT_PATCH_BUILDER, true, PlatformCompat.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            log.warn("Patch builder is not found", e);
+            return null;
+        }
+        try {
+            // 2020.3+: (Project, Collection, Path, boolean reversePatch, boolean honorExcludedFromCommit)
+            MethodHandle handle = lookup.findStatic(builderClass, "buildPatch",
+                    MethodType.methodType(List.class, Project.class, Collection.class, Path.class, boolean.class, boolean.class));
+            handle = MethodHandles.insertArguments(handle, 4, false);
+            handle = MethodHandles.filterArguments(handle, 2, MethodHandles.lookup().findStatic(PlatformCompat.class, "toPath",
+                    MethodType.methodType(Path.class, String.class)));
+            return handle.asType(BUILD_PATCH_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException ignored) {
+            // older build
+        }
+        try {
+            // (Project, Collection, String, boolean reversePatch, boolean honorExcludedFromCommit)
+            MethodHandle handle = lookup.findStatic(builderClass, "buildPatch",
+                    MethodType.methodType(List.class, Project.class, Collection.class, String.class, boolean.class, boolean.class));
+            return MethodHandles.insertArguments(handle, 4, false).asType(BUILD_PATCH_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException ignored) {
+            // older build
+        }
+        try {
+            // 10.x: (Project, Collection, String, boolean reversePatch)
+            return lookup.findStatic(builderClass, "buildPatch", BUILD_PATCH_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            log.warn("No known buildPatch signature is found", e);
+            return null;
+        }
+    }
+
+    private static Path toPath(String path) {
+        return Paths.get(path);
+    }
+
+}
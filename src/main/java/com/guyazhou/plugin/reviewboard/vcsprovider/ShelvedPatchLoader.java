@@ -0,0 +1,96 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider;
+
+import com.intellij.openapi.diff.impl.patch.PatchReader;
+import com.intellij.openapi.diff.impl.patch.PatchSyntaxException;
+import com.intellij.openapi.diff.impl.patch.TextFilePatch;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.changes.shelf.ShelvedChange;
+import com.intellij.project.ProjectKt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the patches a shelf stores for its changes, each patch file is parsed once.
+ * A stored patch is the diff against the base revision the file had when it was shelved, the working copy is not read.
+ */
+public class ShelvedPatchLoader {
+
+    /**
+     * Base revision as the patch builder records it
+     */
+    private static final Pattern BASE_REVISION = Pattern.compile("\\(revision \\d+\\)");
+
+    /**
+     * A new file is diffed against revision 0, as changes of the Changes view are
+     */
+    private static final String NEW_FILE_REVISION = "(revision 0)";
+
+    private ShelvedPatchLoader() {
+    }
+
+    /**
+     * Get the local file of a path in a shelved patch, the paths are relative to the project base dir
+     *
+     * @param project   current project
+     * @param patchPath path in the patch
+     * @return file
+     */
+    public static File getFile(Project project, String patchPath) {
+        return ProjectKt.getStateStore(project).getProjectBasePath().resolve(patchPath).normalize().toFile();
+    }
+
+    /**
+     * Load the stored patches of shelved changes
+     *
+     * @param shelvedChanges shelved changes
+     * @return text patches in the order of the changes
+     */
+    public static List<TextFilePatch> load(Collection<ShelvedChange> shelvedChanges) {
+        Map<String, Map<String, TextFilePatch>> patchFiles = new HashMap<>();
+        List<TextFilePatch> shelvedPatches = new ArrayList<>(shelvedChanges.size());
+        for (ShelvedChange shelvedChange : shelvedChanges) {
+            ProgressManager.checkCanceled();
+            TextFilePatch shelvedPatch = patchFiles.computeIfAbsent(shelvedChange.getPatchPath(), ShelvedPatchLoader::readPatchFile)
+                    .get(shelvedChange.getBeforePath());
+            if (null == shelvedPatch) {
+                throw new RuntimeException(String.format("No patch is stored for shelved file [ %s ]", shelvedChange.getBeforePath()));
+            }
+            if (shelvedPatch.isNewFile()) {
+                shelvedPatch.setBeforeVersionId(NEW_FILE_REVISION);
+            } else if (null == shelvedPatch.getBeforeVersionId() || !BASE_REVISION.matcher(shelvedPatch.getBeforeVersionId().trim()).matches()) {
+                throw new RuntimeException(String.format("No base revision is recorded for shelved file [ %s ], please unshelve it first",
+                        shelvedChange.getBeforePath()));
+            }
+            shelvedPatches.add(shelvedPatch);
+        }
+        return shelvedPatches;
+    }
+
+    /**
+     * Read the text patches of a shelf patch file by their before path
+     */
+    private static Map<String, TextFilePatch> readPatchFile(String patchPath) {
+        try {
+            String patchContent = new String(Files.readAllBytes(Paths.get(patchPath)), StandardCharsets.UTF_8);
+            Map<String, TextFilePatch> textFilePatches = new HashMap<>();
+            for (TextFilePatch textFilePatch : new PatchReader(patchContent).readTextPatches()) {
+                textFilePatches.put(textFilePatch.getBeforeName(), textFilePatch);
+            }
+            return textFilePatches;
+        } catch (IOException | PatchSyntaxException e) {
+            throw new RuntimeException("Read shelved patch " + patchPath + " error, " + e.getMessage(), e);
+        }
+    }
+
+}
@@ -1,9 +1,13 @@
 package com.guyazhou.plugin.reviewboard.vcsprovider;
 
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.shelf.ShelvedChange;
 import com.intellij.openapi.vfs.VirtualFile;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -27,10 +31,36 @@ public interface VcsProvider {
     void build(Project project, List<VirtualFile> virtualFiles);
 
     /**
-     * Get diff string
-     * @return diff string
+     * Build basic info from changes, e.g. of the Changes view, files are neither looked up nor refreshed
+     * @param project current project
+     * @param changes selected changes, deleted and moved files included
+     */
+    void build(Project project, Collection<Change> changes);
+
+    /**
+     * Build basic info from shelved changes, the diff is the patch the shelf stores against the revision the files were shelved from,
+     * the working copy files are not read
+     * @param project current project
+     * @param shelvedChanges selected shelved changes
+     */
+    void buildShelved(Project project, Collection<ShelvedChange> shelvedChanges);
+
+    /**
+     * Get diff content of all working copies, replayable, held in memory or spilled to disk if large
+     * @return diff source
+     */
+    ContentSource getDiffSource();
+
+    /**
+     * Get selected files grouped by working copy, each with its own diff
+     * @return diff groups, the first one is described by the repository url and working copy path
+     */
+    List<DiffGroup> getDiffGroups();
+
+    /**
+     * Release resources held by the diff once it is submitted or discarded
      */
-    String getDifferences();
+    void release();
 
     /**
      * get repository url
@@ -5,10 +5,9 @@ import com.guyazhou.plugin.reviewboard.vcsprovider.svn.SvnVcsProvider;
 import com.guyazhou.plugin.reviewboard.exceptions.NoVcsProviderFoundException;
 import com.intellij.openapi.vcs.AbstractVcs;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * Vcs provider factory, support svn, Git now.
@@ -17,11 +16,11 @@ import java.util.Map;
  */
 public class VcsProviderFactory {
 
-    private static Map<String, Class<? extends VcsProvider>> vcsProviders = new HashMap<>();
+    private static Map<String, Function<AbstractVcs, ? extends VcsProvider>> vcsProviders = new HashMap<>();
 
     static {
-        vcsProviders.put("svn", SvnVcsProvider.class);
-        vcsProviders.put("Git", GitVcsProvider.class);
+        vcsProviders.put("svn", SvnVcsProvider::new);
+        vcsProviders.put("Git", GitVcsProvider::new);
     }
 
     /**
@@ -31,15 +30,14 @@ public class VcsProviderFactory {
      * @return a vcs provider instance
      */
     public static VcsProvider getVcsProvider(AbstractVcs abstractVcs) {
-        Class<? extends VcsProvider> vcsProviderClazz = vcsProviders.get(abstractVcs.getName());
-        if (vcsProviderClazz == null) {
+        Function<AbstractVcs, ? extends VcsProvider> vcsProviderConstructor = vcsProviders.get(abstractVcs.getName());
+        if (vcsProviderConstructor == null) {
             throw new NullPointerException(String.format("No vcs provider found for [ %s ]", abstractVcs.getName()));
         }
         try {
-            Constructor<? extends VcsProvider> vcsProviderClazzConstructor = vcsProviderClazz.getConstructor(AbstractVcs.class);
-            return vcsProviderClazzConstructor.newInstance(abstractVcs);
-        } catch (NoSuchMethodException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
-            throw new NoVcsProviderFoundException(String.format("Can not initialize vcs provider for [ %s ]", vcsProviderClazz.getName()), e);
+            return vcsProviderConstructor.apply(abstractVcs);
+        } catch (RuntimeException e) {
+            throw new NoVcsProviderFoundException(String.format("Can not initialize vcs provider for [ %s ]", abstractVcs.getName()), e);
         }
     }
 
@@ -1,67 +1,215 @@
 package com.guyazhou.plugin.reviewboard.vcsprovider.git;
 
+import com.guyazhou.plugin.reviewboard.setting.ReviewBoardSetting;
 import com.guyazhou.plugin.reviewboard.vcsprovider.AbstractVcsProvider;
+import com.guyazhou.plugin.reviewboard.vcsprovider.DiffGroup;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangesUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-//import git4idea.GitUtil;
-//import git4idea.commands.Git;
-//import git4idea.commands.GitCommand;
-//import git4idea.commands.GitCommandResult;
-//import git4idea.commands.GitLineHandler;
-//import git4idea.repo.GitRepository;
+import git4idea.GitUtil;
+import git4idea.commands.Git;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitCommandResult;
+import git4idea.commands.GitLineHandler;
+import git4idea.repo.GitRemote;
+import git4idea.repo.GitRepository;
+import git4idea.repo.GitRepositoryManager;
+import org.apache.commons.lang3.StringUtils;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
- * Git vcs provider
+ * Git vcs provider, the diff is the output of git diff --full-index against the configured base revision, per git root
  *
  * @author YaZhou.Gu 2016/12/28
  */
 public class GitVcsProvider extends AbstractVcsProvider {
 
-    private VirtualFile workingCopy;
+    /**
+     * Git roots of the diff groups, by root path
+     */
+    private final Map<String, VirtualFile> gitRoots = new HashMap<>();
 
     public GitVcsProvider(AbstractVcs abstractVcs) {
         super(abstractVcs);
     }
 
+    /**
+     * Set remote url and working copy root according to the given selected virtual files in git, files are grouped by git root
+     * @param virtualFiles selected files
+     */
     @Override
     protected void setRepositoryRootAndWorkingCopyPath(Project project, List<VirtualFile> virtualFiles) {
+        GitRepositoryManager gitRepositoryManager = GitUtil.getRepositoryManager(project);
+        Map<GitRepository, DiffGroup> diffGroupMap = new LinkedHashMap<>();
 
         for (VirtualFile virtualFile : virtualFiles) {
-//            if (null != virtualFile) {
-//                virtualFile.refresh(false, true);
-//                GitRepository gitRepository = GitUtil.getRepositoryManager(project).getRepositoryForFile(virtualFile); // TODO set project
-//                assert gitRepository != null;
-//                repositoryURL = gitRepository.getRemotes().iterator().next().getFirstUrl();
-//                workingCopy = gitRepository.getRoot();
-//                break;
-//            }
+            ProgressManager.checkCanceled();
+            if (null != virtualFile) {
+                GitRepository gitRepository = gitRepositoryManager.getRepositoryForFile(virtualFile);
+                if (null == gitRepository) {
+                    throw new RuntimeException("Can not get git repository of file " + virtualFile.getPath());
+                }
+                getDiffGroup(diffGroupMap, gitRepository).getVirtualFiles().add(virtualFile);
+            }
+        }
+        setDiffGroups(diffGroupMap, virtualFiles.stream().map(m->m.getPath()).collect(Collectors.joining("<br/>diff --old ")));
+    }
+
+    /**
+     * Set remote url and working copy root according to the given changes in git, changes are grouped by git root
+     * @param changes selected changes
+     */
+    @Override
+    protected void setRepositoryRootAndWorkingCopyPath(Project project, Collection<Change> changes) {
+        GitRepositoryManager gitRepositoryManager = GitUtil.getRepositoryManager(project);
+        Map<GitRepository, DiffGroup> diffGroupMap = new LinkedHashMap<>();
+
+        for (Change change : changes) {
+            ProgressManager.checkCanceled();
+            FilePath filePath = ChangesUtil.getFilePath(change);
+            GitRepository gitRepository = gitRepositoryManager.getRepositoryForFile(filePath);
+            if (null == gitRepository) {
+                throw new RuntimeException("Can not get git repository of file " + filePath.getPath());
+            }
+            getDiffGroup(diffGroupMap, gitRepository).getChanges().add(change);
+        }
+        setDiffGroups(diffGroupMap, changes.stream().map(change -> ChangesUtil.getFilePath(change).getPath())
+                .collect(Collectors.joining("<br/>diff --old ")));
+    }
+
+    private DiffGroup getDiffGroup(Map<GitRepository, DiffGroup> diffGroupMap, GitRepository gitRepository) {
+        DiffGroup diffGroup = diffGroupMap.get(gitRepository);
+        if (null == diffGroup) {
+            String remoteURL = getRemoteURL(gitRepository);
+            if (null == remoteURL) {
+                throw new RuntimeException("Git repository " + gitRepository.getRoot().getName() + " has no remote");
+            }
+            // git diff paths are relative to the repository root
+            diffGroup = new DiffGroup(gitRepository.getRoot().getPath(), remoteURL, "");
+            diffGroupMap.put(gitRepository, diffGroup);
+            gitRoots.put(diffGroup.getWorkingCopyDir(), gitRepository.getRoot());
+        }
+        return diffGroup;
+    }
+
+    private void setDiffGroups(Map<GitRepository, DiffGroup> diffGroupMap, String diffPaths) {
+        if (diffGroupMap.isEmpty()) {
+            throw new RuntimeException("No file is selected");
         }
 
+        this.diffGroups = new ArrayList<>(diffGroupMap.values());
+        DiffGroup firstDiffGroup = this.diffGroups.get(0);
+        this.repositoryURL = firstDiffGroup.getRepositoryURL();
+        this.workingCopyDir = firstDiffGroup.getWorkingCopyDir();
+        this.workingCopyPathInRepository = firstDiffGroup.getWorkingCopyPathInRepository();
+        this.diffPaths = diffPaths;
     }
 
+    /**
+     * Get url of the origin remote, or of the first remote if there is no origin
+     *
+     * @param gitRepository git repository
+     * @return remote url, null if no remote
+     */
+    private static String getRemoteURL(GitRepository gitRepository) {
+        String remoteURL = null;
+        for (GitRemote gitRemote : gitRepository.getRemotes()) {
+            String firstUrl = gitRemote.getFirstUrl();
+            if (null == firstUrl) {
+                continue;
+            }
+            if (GitRemote.ORIGIN.equals(gitRemote.getName())) {
+                return firstUrl;
+            }
+            if (null == remoteURL) {
+                remoteURL = firstUrl;
+            }
+        }
+        return remoteURL;
+    }
+
+    /**
+     * Generate differences of a git root, the output of git diff is streamed to the writer, lines keep their own separators
+     *
+     * @param project current project
+     * @param diffGroup files of the git root
+     * @param writer git diff output is written here
+     * @throws IOException if writing fails
+     */
     @Override
-    protected String generateDifferences(Project project, List<VirtualFile> virtualFiles) {
-//        ApplicationManager.getApplication().runWriteAction(new Runnable() {
-//            public void run() {
-//                FileDocumentManager.getInstance().saveAllDocuments();
-//            }
-//        });
-
-//        GitLineHandler handler = new GitLineHandler(project, workingCopy, GitCommand.DIFF);
-//        handler.addParameters("HEAD");
-//        handler.setSilent(true);
-//        handler.setStdoutSuppressed(true);
-//        handler.addParameters("--full-index");
-//        handler.addRelativeFiles(virtualFiles);
-//
-//        Git git = Git.getInstance();
-//        GitCommandResult gitCommandResult = git.runCommand(handler);
-//        return gitCommandResult.getOutputAsJoinedString();
-        return "";
+    protected void generateDifferences(Project project, DiffGroup diffGroup, Writer writer) throws IOException {
+        // git reads the files from disk, unsaved editor changes must be there first
+        ApplicationManager.getApplication().invokeAndWait(() -> FileDocumentManager.getInstance().saveAllDocuments());
+
+        VirtualFile root = gitRoots.get(diffGroup.getWorkingCopyDir());
+        GitLineHandler gitLineHandler = new GitLineHandler(project, root, GitCommand.DIFF);
+        gitLineHandler.setSilent(true);
+        gitLineHandler.setStdoutSuppressed(true);
+        gitLineHandler.setWithLineSeparators(true);
+        gitLineHandler.addParameters("--full-index", "--no-color", "--no-ext-diff");
+        gitLineHandler.addParameters(getDiffBase());
+        gitLineHandler.endOptions();
+        if (diffGroup.getChanges().isEmpty()) {
+            gitLineHandler.addRelativeFiles(diffGroup.getVirtualFiles());
+        } else {
+            // both sides of a moved file, a deleted file has no virtual file but its path still diffs
+            Set<FilePath> filePaths = new LinkedHashSet<>();
+            for (Change change : diffGroup.getChanges()) {
+                if (null != change.getBeforeRevision()) {
+                    filePaths.add(change.getBeforeRevision().getFile());
+                }
+                if (null != change.getAfterRevision()) {
+                    filePaths.add(change.getAfterRevision().getFile());
+                }
+            }
+            gitLineHandler.addRelativePaths(filePaths);
+        }
+
+        IOException[] writeError = new IOException[1];
+        gitLineHandler.addLineListener((line, outputType) -> {
+            if (ProcessOutputTypes.STDOUT != outputType || null != writeError[0]) {
+                return;
+            }
+            try {
+                writer.write(line);
+            } catch (IOException e) {
+                writeError[0] = e;
+            }
+        });
+
+        GitCommandResult gitCommandResult = Git.getInstance().runCommandWithoutCollectingOutput(gitLineHandler);
+        if (null != writeError[0]) {
+            throw writeError[0];
+        }
+        if (!gitCommandResult.success()) {
+            throw new RuntimeException("Git diff error in " + root.getPath() + ", " + gitCommandResult.getErrorOutputAsJoinedString());
+        }
     }
 
+    private static String getDiffBase() {
+        ReviewBoardSetting.State state = ReviewBoardSetting.getInstance().getState();
+        if (null == state || StringUtils.isBlank(state.getGitDiffBase())) {
+            return "HEAD";
+        }
+        return state.getGitDiffBase().trim();
+    }
 
 }
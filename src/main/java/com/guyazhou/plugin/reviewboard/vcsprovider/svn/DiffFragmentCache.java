@@ -0,0 +1,340 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider.svn;
+
+import com.guyazhou.plugin.reviewboard.setting.ReviewBoardSetting;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Rendered diff fragments per file, so only files changed since the last diff are diffed again.
+ * Least recently used fragments are kept in memory up to a byte budget, the ones pushed out spill to disk up to another.
+ */
+public class DiffFragmentCache {
+
+    private final Logger log = LoggerFactory.getLogger(DiffFragmentCache.class);
+
+    /**
+     * Bump when the rendered diff changes, spilled fragments of older versions are never matched
+     */
+    private static final String FORMAT_VERSION = "1";
+
+    private static final long MAX_MEMORY_BYTES = 32L * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 256L * 1024 * 1024;
+
+    private final Map<FragmentKey, DiffFragment> memoryFragments = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    /**
+     * Spilled file name to file size, least recently used first
+     */
+    private final Map<String, Long> diskFragments = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+
+    private final Path spillDir = Paths.get(PathManager.getSystemPath(), "review-board", "fragments");
+
+    public DiffFragmentCache() {
+        this.loadDiskIndex();
+    }
+
+    public static DiffFragmentCache getInstance() {
+        return ApplicationManager.getApplication().getService(DiffFragmentCache.class);
+    }
+
+    /**
+     * Get a fragment, from memory or from disk
+     *
+     * @param fragmentKey fragment key, nullable
+     * @return fragment, null if not cached
+     */
+    public DiffFragment get(FragmentKey fragmentKey) {
+        if (null == fragmentKey) {
+            return null;
+        }
+        synchronized (this) {
+            DiffFragment diffFragment = memoryFragments.get(fragmentKey);
+            if (null != diffFragment || null == diskFragments.get(fragmentKey.getFileName())) {
+                return diffFragment;
+            }
+        }
+        DiffFragment diffFragment = this.readFromDisk(fragmentKey);
+        if (null != diffFragment) {
+            this.put(fragmentKey, diffFragment);
+        }
+        return diffFragment;
+    }
+
+    /**
+     * Put a fragment into memory, fragments pushed out of the memory budget are spilled
+     *
+     * @param fragmentKey  fragment key, nullable
+     * @param diffFragment fragment
+     */
+    public void put(FragmentKey fragmentKey, DiffFragment diffFragment) {
+        if (null == fragmentKey) {
+            return;
+        }
+        Map<FragmentKey, DiffFragment> evicted = new LinkedHashMap<>();
+        synchronized (this) {
+            DiffFragment previous = memoryFragments.put(fragmentKey, diffFragment);
+            if (null != previous) {
+                memoryBytes -= previous.getWeight();
+            }
+            memoryBytes += diffFragment.getWeight();
+            Iterator<Map.Entry<FragmentKey, DiffFragment>> iterator = memoryFragments.entrySet().iterator();
+            while (memoryBytes > MAX_MEMORY_BYTES && iterator.hasNext()) {
+                Map.Entry<FragmentKey, DiffFragment> eldest = iterator.next();
+                iterator.remove();
+                memoryBytes -= eldest.getValue().getWeight();
+                if (!diskFragments.containsKey(eldest.getKey().getFileName())) {
+                    evicted.put(eldest.getKey(), eldest.getValue());
+                }
+            }
+        }
+        if (isSpillEnabled()) {
+            evicted.forEach(this::writeToDisk);
+        }
+    }
+
+    private static boolean isSpillEnabled() {
+        ReviewBoardSetting.State state = ReviewBoardSetting.getInstance().getState();
+        return null == state || state.isSpillDiffFragments();
+    }
+
+    private void writeToDisk(FragmentKey fragmentKey, DiffFragment diffFragment) {
+        Path fragmentFile = spillDir.resolve(fragmentKey.getFileName());
+        try {
+            Files.createDirectories(spillDir);
+            Path tmpFile = Files.createTempFile(spillDir, fragmentKey.getFileName(), ".tmp");
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                outputStream.writeInt(diffFragment.getContentText().length());
+                outputStream.write((diffFragment.getContentText() + diffFragment.getNoContentText()).getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(tmpFile, fragmentFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(fragmentFile);
+            List<String> trimmed = new ArrayList<>();
+            synchronized (this) {
+                Long previousSize = diskFragments.put(fragmentKey.getFileName(), size);
+                diskBytes += size - (null == previousSize ? 0 : previousSize);
+                Iterator<Map.Entry<String, Long>> iterator = diskFragments.entrySet().iterator();
+                while (diskBytes > MAX_DISK_BYTES && iterator.hasNext()) {
+                    Map.Entry<String, Long> eldest = iterator.next();
+                    iterator.remove();
+                    diskBytes -= eldest.getValue();
+                    trimmed.add(eldest.getKey());
+                }
+            }
+            for (String fileName : trimmed) {
+                Files.deleteIfExists(spillDir.resolve(fileName));
+            }
+        } catch (IOException e) {
+            log.warn("Spill diff fragment error", e);
+        }
+    }
+
+    private DiffFragment readFromDisk(FragmentKey fragmentKey) {
+        Path fragmentFile = spillDir.resolve(fragmentKey.getFileName());
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(fragmentFile)))) {
+            int contentLength = inputStream.readInt();
+            String text = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            return new DiffFragment(text.substring(0, contentLength), text.substring(contentLength));
+        } catch (IOException | IndexOutOfBoundsException e) {
+            log.warn("Read spilled diff fragment error", e);
+            synchronized (this) {
+                Long size = diskFragments.remove(fragmentKey.getFileName());
+                diskBytes -= null == size ? 0 : size;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Index the fragments spilled in earlier sessions, oldest first
+     */
+    private void loadDiskIndex() {
+        if (!Files.isDirectory(spillDir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(spillDir)) {
+            List<Path> fragmentFiles = files.filter(Files::isRegularFile).collect(Collectors.toList());
+            fragmentFiles.sort(Comparator.comparingLong(DiffFragmentCache::lastModified));
+            for (Path fragmentFile : fragmentFiles) {
+                String fileName = fragmentFile.getFileName().toString();
+                if (fileName.endsWith(".tmp")) {
+                    Files.deleteIfExists(fragmentFile);     // left by a crash while spilling
+                    continue;
+                }
+                long size = Files.size(fragmentFile);
+                diskFragments.put(fileName, size);
+                diskBytes += size;
+            }
+        } catch (IOException e) {
+            log.warn("Index spilled diff fragments error", e);
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder stringBuilder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            stringBuilder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * What a rendered fragment depends on: the file path, the before revision and the after content,
+     * plus the working copy path in repository which the writer puts into the file headers
+     */
+    public static final class FragmentKey {
+
+        private final String workingCopyPathInRepository;
+        private final Change.Type type;
+        private final String beforePath;
+        private final String beforeRevision;
+        private final String afterPath;
+        private final String afterContentHash;
+        private final String fileName;
+
+        private FragmentKey(String workingCopyPathInRepository, Change.Type type, String beforePath, String beforeRevision,
+                            String afterPath, String afterContentHash) {
+            this.workingCopyPathInRepository = workingCopyPathInRepository;
+            this.type = type;
+            this.beforePath = beforePath;
+            this.beforeRevision = beforeRevision;
+            this.afterPath = afterPath;
+            this.afterContentHash = afterContentHash;
+            MessageDigest messageDigest = newDigest();
+            for (String value : new String[]{FORMAT_VERSION, workingCopyPathInRepository, type.name(), beforePath, beforeRevision, afterPath, afterContentHash}) {
+                if (null != value) {
+                    messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+                }
+                messageDigest.update((byte) 0);
+            }
+            this.fileName = toHex(messageDigest.digest());
+        }
+
+        /**
+         * Key of the fragment of a change, the after content is read and hashed
+         *
+         * @param change                      change as submitted
+         * @param workingCopyPathInRepository path of the working copy in repository
+         * @return key, null if the content can not be read
+         */
+        public static FragmentKey of(Change change, String workingCopyPathInRepository) {
+            ContentRevision beforeRevision = change.getBeforeRevision();
+            ContentRevision afterRevision = change.getAfterRevision();
+            String afterContentHash = null;
+            if (null != afterRevision) {
+                try {
+                    String afterContent = afterRevision.getContent();
+                    afterContentHash = null == afterContent ? null : toHex(newDigest().digest(afterContent.getBytes(StandardCharsets.UTF_8)));
+                } catch (VcsException e) {
+                    return null;
+                }
+            }
+            return new FragmentKey(workingCopyPathInRepository, change.getType(),
+                    null == beforeRevision ? null : beforeRevision.getFile().getPath(),
+                    null == beforeRevision ? null : beforeRevision.getRevisionNumber().asString(),
+                    null == afterRevision ? null : afterRevision.getFile().getPath(),
+                    afterContentHash);
+        }
+
+        String getFileName() {
+            return fileName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FragmentKey)) {
+                return false;
+            }
+            FragmentKey that = (FragmentKey) o;
+            return Objects.equals(workingCopyPathInRepository, that.workingCopyPathInRepository)
+                    && type == that.type
+                    && Objects.equals(beforePath, that.beforePath)
+                    && Objects.equals(beforeRevision, that.beforeRevision)
+                    && Objects.equals(afterPath, that.afterPath)
+                    && Objects.equals(afterContentHash, that.afterContentHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return fileName.hashCode();
+        }
+    }
+
+    /**
+     * Rendered diff of one change, patches with content changes and patches without are written apart,
+     * the diff writer puts the latter after all the others
+     */
+    public static class DiffFragment {
+
+        private final String contentText;
+        private final String noContentText;
+
+        public DiffFragment(String contentText, String noContentText) {
+            this.contentText = contentText;
+            this.noContentText = noContentText;
+        }
+
+        public String getContentText() {
+            return contentText;
+        }
+
+        public String getNoContentText() {
+            return noContentText;
+        }
+
+        /**
+         * Approximate bytes held in memory
+         */
+        long getWeight() {
+            return 2L * (contentText.length() + noContentText.length()) + 64;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider.svn;
+
+import com.guyazhou.plugin.reviewboard.setting.ReviewBoardSetting;
+import com.guyazhou.plugin.reviewboard.vcsprovider.DiffGroup;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListListener;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.ChangesUtil;
+import com.intellij.util.Alarm;
+import org.jetbrains.idea.svn.SvnUtil;
+import org.jetbrains.idea.svn.SvnVcs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Renders the diff fragment of every changed svn file in background while the user works,
+ * into the {@link DiffFragmentCache}, so Pre-Commit mostly assembles fragments which are ready already.
+ * Runs a while after the change list manager settles, on a pooled thread, and gives way to newer updates and to write actions.
+ */
+public class SvnDiffPrecomputeService implements Disposable {
+
+    private final Logger log = LoggerFactory.getLogger(SvnDiffPrecomputeService.class);
+
+    /**
+     * Milliseconds without change list updates before precomputing
+     */
+    private static final int DEBOUNCE_DELAY = 2000;
+
+    /**
+     * Larger change lists are left to Pre-Commit
+     */
+    private static final int MAX_PRECOMPUTED_CHANGES = 500;
+
+    private final Project project;
+    private final Alarm alarm;
+    private volatile ProgressIndicator precomputeIndicator;
+
+    public SvnDiffPrecomputeService(Project project) {
+        this.project = project;
+        this.alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+        ChangeListManager.getInstance(project).addChangeListListener(new ChangeListListener() {
+            @Override
+            public void changeListUpdateDone() {
+                schedulePrecompute();
+            }
+        }, this);
+    }
+
+    public static SvnDiffPrecomputeService getInstance(Project project) {
+        return project.getService(SvnDiffPrecomputeService.class);
+    }
+
+    /**
+     * Precompute once the change list manager has been quiet for a while, a running precompute is stale now
+     */
+    private void schedulePrecompute() {
+        ProgressIndicator runningIndicator = precomputeIndicator;
+        if (null != runningIndicator) {
+            runningIndicator.cancel();
+        }
+        if (alarm.isDisposed()) {
+            return;
+        }
+        alarm.cancelAllRequests();
+        alarm.addRequest(this::precompute, DEBOUNCE_DELAY);
+    }
+
+    private void precompute() {
+        ReviewBoardSetting.State state = ReviewBoardSetting.getInstance().getState();
+        if (project.isDisposed() || (null != state && !state.isPrecomputeDiffs())
+                || !ProjectLevelVcsManager.getInstance(project).checkVcsIsActive(SvnVcs.VCS_NAME)) {
+            return;
+        }
+
+        ProgressIndicator progressIndicator = new EmptyProgressIndicator();
+        precomputeIndicator = progressIndicator;
+        // no thread priority games, each file is rendered in a cancellable read action which gives way to a pending
+        // write action and restarts after it, that is what keeps the user's edits from waiting on the precompute
+        try {
+            ProgressManager.getInstance().runProcess(this::precomputeFragments, progressIndicator);
+        } catch (ProcessCanceledException e) {
+            log.debug("Diff precompute is cancelled by a newer change list update");
+        } catch (RuntimeException e) {
+            log.warn("Diff precompute error, fragments are rendered on Pre-Commit", e);
+        } finally {
+            if (precomputeIndicator == progressIndicator) {
+                precomputeIndicator = null;
+            }
+        }
+    }
+
+    private void precomputeFragments() {
+        SvnVcs svnVcs = SvnVcs.getInstance(project);
+        ProjectLevelVcsManager projectLevelVcsManager = ProjectLevelVcsManager.getInstance(project);
+        SvnWorkingCopyInfoCache workingCopyInfoCache = SvnWorkingCopyInfoCache.getInstance(project);
+        DiffFragmentCache diffFragmentCache = DiffFragmentCache.getInstance();
+        List<Change> changes = ChangeListManager.getInstance(project).getAllChanges().stream()
+                .filter(change -> svnVcs == projectLevelVcsManager.getVcsFor(ChangesUtil.getFilePath(change)))
+                .limit(MAX_PRECOMPUTED_CHANGES + 1)
+                .collect(Collectors.toList());
+        if (changes.size() > MAX_PRECOMPUTED_CHANGES) {
+            return;
+        }
+
+        // the same grouping as Pre-Commit, a fragment depends on the working copy of its file
+        Map<String, DiffGroup> diffGroups = new HashMap<>();
+        int rendered = 0;
+        for (Change change : changes) {
+            ProgressManager.checkCanceled();
+            FilePath filePath = ChangesUtil.getFilePath(change);
+            File directory = filePath.getIOFile().getParentFile();
+            if (null == directory) {
+                continue;
+            }
+            DiffGroup diffGroup = diffGroups.computeIfAbsent(directory.getPath(), path -> {
+                File workingCopyRoot = SvnUtil.getWorkingCopyRoot(new File(path));
+                return null == workingCopyRoot ? null : SvnVcsProvider.createDiffGroup(svnVcs, workingCopyInfoCache, workingCopyRoot);
+            });
+            if (null == diffGroup) {
+                continue;
+            }
+            Change submittedChange = SvnVcsProvider.toSubmittedChange(change);
+            DiffFragmentCache.FragmentKey fragmentKey = DiffFragmentCache.FragmentKey.of(submittedChange, diffGroup.getWorkingCopyPathInRepository());
+            if (null == fragmentKey || null != diffFragmentCache.get(fragmentKey)) {
+                continue;
+            }
+            diffFragmentCache.put(fragmentKey, SvnVcsProvider.buildFragment(project, submittedChange,
+                    diffGroup.getWorkingCopyDir(), diffGroup.getWorkingCopyPathInRepository()));
+            rendered++;
+        }
+        log.info(String.format("Diff precompute rendered %s of %s changed file(s)", rendered, changes.size()));
+    }
+
+    @Override
+    public void dispose() {
+        ProgressIndicator runningIndicator = precomputeIndicator;
+        if (null != runningIndicator) {
+            runningIndicator.cancel();
+        }
+    }
+
+}
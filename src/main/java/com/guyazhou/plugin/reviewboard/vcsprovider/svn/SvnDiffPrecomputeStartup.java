@@ -0,0 +1,17 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider.svn;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Start listening to change list updates once the project is open, so diffs are precomputed before the first Pre-Commit
+ */
+public class SvnDiffPrecomputeStartup implements StartupActivity.Background {
+
+    @Override
+    public void runActivity(@NotNull Project project) {
+        SvnDiffPrecomputeService.getInstance(project);
+    }
+
+}
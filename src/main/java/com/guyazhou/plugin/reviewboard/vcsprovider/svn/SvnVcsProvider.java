@@ -1,31 +1,46 @@
 package com.guyazhou.plugin.reviewboard.vcsprovider.svn;
 
 import com.guyazhou.plugin.reviewboard.vcsprovider.AbstractVcsProvider;
+import com.guyazhou.plugin.reviewboard.vcsprovider.DiffGroup;
+import com.guyazhou.plugin.reviewboard.vcsprovider.PlatformCompat;
+import com.guyazhou.plugin.reviewboard.vcsprovider.ShelvedPatchLoader;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diff.impl.patch.FilePatch;
 import com.intellij.openapi.diff.impl.patch.MyUnifiedDiffWriter;
+import com.intellij.openapi.diff.impl.patch.TextFilePatch;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.ChangesUtil;
 import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vcs.changes.shelf.ShelvedChange;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.idea.svn.SvnUtil;
 import org.jetbrains.idea.svn.SvnVcs;
-import org.jetbrains.idea.svn.info.Info;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 /**
@@ -35,13 +50,25 @@ import java.util.stream.Collectors;
  */
 public class SvnVcsProvider extends AbstractVcsProvider {
 
+    private final Logger log = LoggerFactory.getLogger(SvnVcsProvider.class);
+
+    /**
+     * Changes per patch building task, smaller diffs are built on the calling thread
+     */
+    private static final int PATCH_CHUNK_SIZE = 64;
+
+    /**
+     * Bounded pool for building patches, one worker per core at most
+     */
+    private static final ForkJoinPool PATCH_POOL = new ForkJoinPool(Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors())));
 
     public SvnVcsProvider(AbstractVcs abstractVcs) {
         super(abstractVcs);
     }
 
     /**
-     * Set repository root url and working copy path in repository according to the given selected virtual files in svn
+     * Set repository root url and working copy path in repository according to the given selected virtual files in svn,
+     * files are grouped by working copy root, e.g. externals are working copies of their own
      * @param virtualFiles selected files
      */
     @Override
@@ -57,66 +84,125 @@ public class SvnVcsProvider extends AbstractVcsProvider {
          *
          */
 
-        File localRootDir = null;
-        String remoteRootURL = null;
-        String repositoryURL = null;
+        SvnVcs svnVcs = (SvnVcs) this.abstractVcs;
+        SvnWorkingCopyInfoCache workingCopyInfoCache = SvnWorkingCopyInfoCache.getInstance(project);
+        // files of one directory share the working copy root, look it up once per directory
+        Map<String, File> workingCopyRoots = new HashMap<>();
+        Map<File, DiffGroup> diffGroupMap = new LinkedHashMap<>();
 
         for (VirtualFile virtualFile : virtualFiles) {
+            ProgressManager.checkCanceled();
             if (null != virtualFile) {
-                virtualFile.refresh(false, true);   // refresh file synchronously adv. synchronize v.
+                VirtualFile directory = virtualFile.isDirectory() ? virtualFile : virtualFile.getParent();
+                getDiffGroup(svnVcs, workingCopyInfoCache, workingCopyRoots, diffGroupMap,
+                        null == directory ? virtualFile.getPath() : directory.getPath()).getVirtualFiles().add(virtualFile);
+            }
+        }
+        setDiffGroups(diffGroupMap, virtualFiles.stream().map(m->m.getPath()).collect(Collectors.joining("<br/>diff --old ")));
+    }
 
-                File workingCopyRoot = SvnUtil.getWorkingCopyRoot(new File(virtualFile.getPath()));
-                if(null == workingCopyRoot) {
-                    throw new RuntimeException("Can not get working copy root of file(s)");
-                }
-                if (null == localRootDir) { // only one time?
-                    localRootDir = workingCopyRoot;
-                }
+    /**
+     * Set repository root url and working copy path in repository according to the given changes in svn,
+     * changes are grouped by the working copy root of their file, a deleted file is looked up by its directory
+     * @param changes selected changes
+     */
+    @Override
+    protected void setRepositoryRootAndWorkingCopyPath(Project project, Collection<Change> changes) {
+        SvnVcs svnVcs = (SvnVcs) this.abstractVcs;
+        SvnWorkingCopyInfoCache workingCopyInfoCache = SvnWorkingCopyInfoCache.getInstance(project);
+        Map<String, File> workingCopyRoots = new HashMap<>();
+        Map<File, DiffGroup> diffGroupMap = new LinkedHashMap<>();
 
-                SvnVcs svnVcs = (SvnVcs) this.abstractVcs;
-
-//                SVNURL remoteRootUrl = SvnUtil.getUrl(svnVcs, workingCopyRoot);
-                Object remoteRootSVNURL = null;
-//                SVNURL repositoryRootSVNURL = SvnUtil.getRepositoryRoot(svnVcs, workingCopyRoot);
-                Object repositoryRootSVNURL = null;
-//                try {
-//
-//                    Class svnUrlClazz = Class.forName("org.tmatesoft.svn.core.SVNURL");
-//                    if (svnUrlClazz != null) {
-//                        remoteRootSVNURL = SvnUtil.getUrl(svnVcs, workingCopyRoot);
-//                        repositoryRootSVNURL = SvnUtil.getRepositoryRoot(svnVcs, workingCopyRoot);
-//                    }
-//
-//                } catch (ClassNotFoundException e) {
-//                    e.printStackTrace();
-//                }
-
-                Info info = svnVcs.getInfo(workingCopyRoot);
-                if (null == info) {
-                    throw new RuntimeException("Can not get svn info");
-                }
+        for (Change change : changes) {
+            ProgressManager.checkCanceled();
+            FilePath filePath = ChangesUtil.getFilePath(change);
+            File directory = filePath.getIOFile().getParentFile();
+            getDiffGroup(svnVcs, workingCopyInfoCache, workingCopyRoots, diffGroupMap,
+                    null == directory ? filePath.getPath() : directory.getPath()).getChanges().add(change);
+        }
+        setDiffGroups(diffGroupMap, changes.stream().map(change -> ChangesUtil.getFilePath(change).getPath())
+                .collect(Collectors.joining("<br/>diff --old ")));
+    }
 
-                try {
-                    remoteRootSVNURL = info.getUrl();
+    /**
+     * Set repository root url and working copy path in repository according to the given shelved changes in svn,
+     * their stored patches are grouped by the working copy root of their file and get paths relative to it
+     * @param shelvedChanges selected shelved changes
+     */
+    @Override
+    protected void setRepositoryRootAndWorkingCopyPathOfShelf(Project project, Collection<ShelvedChange> shelvedChanges) {
+        SvnVcs svnVcs = (SvnVcs) this.abstractVcs;
+        SvnWorkingCopyInfoCache workingCopyInfoCache = SvnWorkingCopyInfoCache.getInstance(project);
+        Map<String, File> workingCopyRoots = new HashMap<>();
+        Map<File, DiffGroup> diffGroupMap = new LinkedHashMap<>();
+        List<String> filePaths = new ArrayList<>();
 
-                    repositoryRootSVNURL = info.getRepositoryRootUrl();
+        for (TextFilePatch shelvedPatch : ShelvedPatchLoader.load(shelvedChanges)) {
+            ProgressManager.checkCanceled();
+            File file = ShelvedPatchLoader.getFile(project, null == shelvedPatch.getAfterName() ? shelvedPatch.getBeforeName() : shelvedPatch.getAfterName());
+            File directory = file.getParentFile();
+            DiffGroup diffGroup = getDiffGroup(svnVcs, workingCopyInfoCache, workingCopyRoots, diffGroupMap,
+                    null == directory ? file.getPath() : directory.getPath());
+            shelvedPatch.setBeforeName(getWorkingCopyPath(project, diffGroup, shelvedPatch.getBeforeName()));
+            shelvedPatch.setAfterName(getWorkingCopyPath(project, diffGroup, shelvedPatch.getAfterName()));
+            diffGroup.getShelvedPatches().add(shelvedPatch);
+            filePaths.add(file.getPath());
+        }
+        setDiffGroups(diffGroupMap, String.join("<br/>diff --old ", filePaths));
+    }
 
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
+    /**
+     * Get a path of a shelved patch relative to the working copy root, as the patch builder writes it
+     */
+    private static String getWorkingCopyPath(Project project, DiffGroup diffGroup, String patchPath) {
+        if (null == patchPath) {
+            return null;
+        }
+        String path = ShelvedPatchLoader.getFile(project, patchPath).getPath().replace('\\', '/');
+        String workingCopyDir = diffGroup.getWorkingCopyDir().replace('\\', '/');
+        if (!path.startsWith(workingCopyDir + "/")) {
+            throw new RuntimeException(String.format("Shelved file [ %s ] is not in working copy %s", patchPath, workingCopyDir));
+        }
+        return path.substring(workingCopyDir.length() + 1);
+    }
 
-//                BuildNumber buildNumber = ApplicationInfo.getInstance().getBuild();
+    private static DiffGroup getDiffGroup(SvnVcs svnVcs, SvnWorkingCopyInfoCache workingCopyInfoCache, Map<String, File> workingCopyRoots,
+                                          Map<File, DiffGroup> diffGroupMap, String directoryPath) {
+        File workingCopyRoot = workingCopyRoots.computeIfAbsent(directoryPath, path -> SvnUtil.getWorkingCopyRoot(new File(path)));
+        if(null == workingCopyRoot) {
+            throw new RuntimeException("Can not get working copy root of file(s)");
+        }
+        return diffGroupMap.computeIfAbsent(workingCopyRoot, root -> createDiffGroup(svnVcs, workingCopyInfoCache, root));
+    }
 
-                if (null != remoteRootSVNURL && null == remoteRootURL) {    // only one time too?
-                    remoteRootURL = remoteRootSVNURL.toString();
-                }
+    private void setDiffGroups(Map<File, DiffGroup> diffGroupMap, String diffPaths) {
+        if (diffGroupMap.isEmpty()) {
+            throw new RuntimeException("No file is selected");
+        }
 
-                if (null != repositoryRootSVNURL && null == repositoryURL) {    // only one time
-                    repositoryURL = repositoryRootSVNURL.toString();
-                }
+        this.diffGroups = new ArrayList<>(diffGroupMap.values());
+        DiffGroup firstDiffGroup = this.diffGroups.get(0);
+        this.repositoryURL = firstDiffGroup.getRepositoryURL();
+        this.workingCopyDir = firstDiffGroup.getWorkingCopyDir();
+        this.workingCopyPathInRepository = firstDiffGroup.getWorkingCopyPathInRepository();
+        this.diffPaths = diffPaths;
+    }
 
-            }
+    /**
+     * Create the group of a working copy, svn info runs once per working copy root, later calls are answered from cache
+     *
+     * @param svnVcs               svn vcs
+     * @param workingCopyInfoCache svn info cache
+     * @param workingCopyRoot      working copy root
+     * @return diff group without files
+     */
+    static DiffGroup createDiffGroup(SvnVcs svnVcs, SvnWorkingCopyInfoCache workingCopyInfoCache, File workingCopyRoot) {
+        SvnWorkingCopyInfoCache.WorkingCopyInfo info = workingCopyInfoCache.getInfo(svnVcs, workingCopyRoot);
+        if (null == info) {
+            throw new RuntimeException("Can not get svn info");
         }
+        String remoteRootURL = info.getUrl();
+        String repositoryURL = info.getRepositoryRootUrl();
         if (null == remoteRootURL) {
             throw new RuntimeException("Remote root URL is null");
         }
@@ -131,34 +217,57 @@ public class SvnVcsProvider extends AbstractVcsProvider {
         } else {
             workingCopyPath = "";
         }
-
-        this.repositoryURL = repositoryURL;
-        this.workingCopyDir = localRootDir.getPath();
-        this.workingCopyPathInRepository = workingCopyPath;
-        this.diffPaths = virtualFiles.stream().map(m->m.getPath()).collect(Collectors.joining("<br/>diff --old "));
+        return new DiffGroup(workingCopyRoot.getPath(), repositoryURL, workingCopyPath);
     }
 
     /**
-     * Generate differences
+     * Generate differences of a working copy, cached fragments of unchanged files are reused, the others are rendered now
      *
      * @param project current project
-     * @param virtualFiles virtural files
-     * @return svn diff files content
+     * @param diffGroup files of the working copy
+     * @param writer svn diff files content is written here
      */
     @Override
-    protected String generateDifferences(Project project, List<VirtualFile> virtualFiles) {
-        List<Change> changeList = getChangeList(project, virtualFiles);
-        List<FilePatch> filePatchList = buildFilePatchList(project, changeList, this.workingCopyDir, false);
-        if (null == filePatchList) {
-            throw new RuntimeException("File patch list is null");
+    protected void generateDifferences(Project project, DiffGroup diffGroup, Writer writer) throws IOException {
+        // a shelf is diffed from the patches it stores, against the revision the files were shelved from
+        if (!diffGroup.getShelvedPatches().isEmpty()) {
+            MyUnifiedDiffWriter.write(project, diffGroup.getShelvedPatches(), writer, "\r\n", null, diffGroup.getWorkingCopyPathInRepository());
+            return;
         }
-        try {
-            StringWriter stringWriter = new StringWriter();
-            MyUnifiedDiffWriter.write(project, filePatchList, stringWriter, "\r\n", null,this);
-            stringWriter.close();
-            return stringWriter.toString();
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage());
+        // changes submitted as they are need no lookup
+        List<Change> changeList = diffGroup.getChanges().isEmpty() ? getChangeList(project, diffGroup.getVirtualFiles())
+                : diffGroup.getChanges().stream().map(SvnVcsProvider::toSubmittedChange).collect(Collectors.toList());
+        DiffFragmentCache diffFragmentCache = DiffFragmentCache.getInstance();
+
+        DiffFragmentCache.FragmentKey[] fragmentKeys = new DiffFragmentCache.FragmentKey[changeList.size()];
+        DiffFragmentCache.DiffFragment[] diffFragments = new DiffFragmentCache.DiffFragment[changeList.size()];
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < changeList.size(); i++) {
+            ProgressManager.checkCanceled();
+            fragmentKeys[i] = DiffFragmentCache.FragmentKey.of(changeList.get(i), diffGroup.getWorkingCopyPathInRepository());
+            diffFragments[i] = diffFragmentCache.get(fragmentKeys[i]);
+            if (null == diffFragments[i]) {
+                missingIndexes.add(i);
+            }
+        }
+
+        List<Change> missingChanges = missingIndexes.stream().map(changeList::get).collect(Collectors.toList());
+        List<DiffFragmentCache.DiffFragment> missingFragments = buildFragmentsInParallel(project, missingChanges,
+                diffGroup.getWorkingCopyDir(), diffGroup.getWorkingCopyPathInRepository());
+        for (int i = 0; i < missingIndexes.size(); i++) {
+            int index = missingIndexes.get(i);
+            diffFragments[index] = missingFragments.get(i);
+            diffFragmentCache.put(fragmentKeys[index], diffFragments[index]);
+        }
+        log.info(String.format("Diff of %s: %s file(s) cached, %s rendered", diffGroup.getName(),
+                changeList.size() - missingIndexes.size(), missingIndexes.size()));
+
+        // the same order as writing all patches in one call, patches without content changes go last
+        for (DiffFragmentCache.DiffFragment diffFragment : diffFragments) {
+            writer.write(diffFragment.getContentText());
+        }
+        for (DiffFragmentCache.DiffFragment diffFragment : diffFragments) {
+            writer.write(diffFragment.getNoContentText());
         }
     }
 
@@ -173,43 +282,138 @@ public class SvnVcsProvider extends AbstractVcsProvider {
         List<Change> changeList = new ArrayList<>();
         ChangeListManager changeListManager = ChangeListManager.getInstance(project);
         for (VirtualFile virtualFile : virtualFiles) {
+            ProgressManager.checkCanceled();
             if (null != virtualFile) {
-                virtualFile.refresh(false, true);
                 Change change = changeListManager.getChange(virtualFile);
-                if ( null != change && Change.Type.NEW.equals(change.getType()) ) {
-                    ContentRevision afterRevision = change.getAfterRevision();
-                    change = new Change(null, new ContentRevision() {
-                        @Nullable
-                        @Override
-                        public String getContent() throws VcsException {
-                            if (null == afterRevision) {
-                                return null;
-                            }
-                            return afterRevision.getContent();
-                        }
-
-                        @NotNull
-                        @Override
-                        public FilePath getFile() {
-                            if (null == afterRevision) {
-                                return null;
-                            }
-                            return afterRevision.getFile();
-                        }
-
-                        @NotNull
-                        @Override
-                        public VcsRevisionNumber getRevisionNumber() {
-                            return new VcsRevisionNumber.Int(0);
-                        }
-                    }, change.getFileStatus());
+                if (null != change) {
+                    changeList.add(toSubmittedChange(change));
                 }
-                changeList.add(change);
             }
         }
         return changeList;
     }
 
+    /**
+     * Get the change as submitted, a new file is diffed against revision 0
+     *
+     * @param change change from change list manager
+     * @return change to build the patch of
+     */
+    static Change toSubmittedChange(Change change) {
+        if (!Change.Type.NEW.equals(change.getType())) {
+            return change;
+        }
+        ContentRevision afterRevision = change.getAfterRevision();
+        return new Change(null, new ContentRevision() {
+            @Nullable
+            @Override
+            public String getContent() throws VcsException {
+                if (null == afterRevision) {
+                    return null;
+                }
+                return afterRevision.getContent();
+            }
+
+            @NotNull
+            @Override
+            public FilePath getFile() {
+                if (null == afterRevision) {
+                    return null;
+                }
+                return afterRevision.getFile();
+            }
+
+            @NotNull
+            @Override
+            public VcsRevisionNumber getRevisionNumber() {
+                return new VcsRevisionNumber.Int(0);
+            }
+        }, change.getFileStatus());
+    }
+
+    /**
+     * Render the fragments of changes chunk by chunk on the patch pool, fragments are returned in the order of the changes
+     *
+     * @param project                     current project
+     * @param changes                     changes
+     * @param workingCopyDir              working copy directory
+     * @param workingCopyPathInRepository path of the working copy in repository
+     * @return fragments
+     */
+    private List<DiffFragmentCache.DiffFragment> buildFragmentsInParallel(Project project, List<Change> changes,
+                                                                               String workingCopyDir, String workingCopyPathInRepository) {
+        if (changes.size() <= PATCH_CHUNK_SIZE) {
+            return changes.stream().map(change -> buildFragment(project, change, workingCopyDir, workingCopyPathInRepository))
+                    .collect(Collectors.toList());
+        }
+
+        ProgressIndicator progressIndicator = ProgressManager.getInstance().getProgressIndicator();
+        List<ForkJoinTask<List<DiffFragmentCache.DiffFragment>>> chunkTasks = new ArrayList<>();
+        for (int start = 0; start < changes.size(); start += PATCH_CHUNK_SIZE) {
+            List<Change> chunk = changes.subList(start, Math.min(start + PATCH_CHUNK_SIZE, changes.size()));
+            chunkTasks.add(PATCH_POOL.submit(() -> {
+                List<DiffFragmentCache.DiffFragment> chunkFragments = new ArrayList<>(chunk.size());
+                // run under the caller's indicator, so cancelling the task stops every chunk
+                ProgressManager.getInstance().executeProcessUnderProgress(() -> {
+                    for (Change change : chunk) {
+                        chunkFragments.add(buildFragment(project, change, workingCopyDir, workingCopyPathInRepository));
+                    }
+                }, progressIndicator);
+                return chunkFragments;
+            }));
+        }
+
+        List<DiffFragmentCache.DiffFragment> diffFragments = new ArrayList<>(changes.size());
+        try {
+            for (ForkJoinTask<List<DiffFragmentCache.DiffFragment>> chunkTask : chunkTasks) {
+                diffFragments.addAll(chunkTask.join());
+            }
+        } catch (RuntimeException e) {
+            for (ForkJoinTask<List<DiffFragmentCache.DiffFragment>> chunkTask : chunkTasks) {
+                chunkTask.cancel(true);
+            }
+            throw e;
+        }
+        return diffFragments;
+    }
+
+    /**
+     * Render the diff fragment of a change, must be called under a progress indicator off the event dispatch thread
+     *
+     * @param project                     current project
+     * @param change                      change as submitted
+     * @param workingCopyDir              working copy directory
+     * @param workingCopyPathInRepository path of the working copy in repository
+     * @return fragment
+     */
+    static DiffFragmentCache.DiffFragment buildFragment(Project project, Change change, String workingCopyDir, String workingCopyPathInRepository) {
+        // one read action per file, it gives way to a pending write action and restarts after it, so typing never waits on a diff
+        List<FilePatch> filePatchList = ReadAction.nonBlocking(() -> buildFilePatchList(project, Collections.singletonList(change), workingCopyDir, false))
+                .expireWith(project)
+                .executeSynchronously();
+        if (null == filePatchList) {
+            throw new RuntimeException("File patch list is null");
+        }
+        List<FilePatch> contentPatches = new ArrayList<>();
+        List<FilePatch> noContentPatches = new ArrayList<>();
+        for (FilePatch filePatch : filePatchList) {
+            if (filePatch instanceof TextFilePatch && ((TextFilePatch) filePatch).hasNoModifiedContent()) {
+                noContentPatches.add(filePatch);
+            } else {
+                contentPatches.add(filePatch);
+            }
+        }
+        try {
+            StringWriter contentWriter = new StringWriter();
+            MyUnifiedDiffWriter.write(project, contentPatches, contentWriter, "\r\n", null, workingCopyPathInRepository);
+            StringWriter noContentWriter = new StringWriter();
+            MyUnifiedDiffWriter.write(project, noContentPatches, noContentWriter, "\r\n", null, workingCopyPathInRepository);
+            return new DiffFragmentCache.DiffFragment(contentWriter.toString(), noContentWriter.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
     /**
      * Build file patch list
      *
@@ -219,21 +423,8 @@ public class SvnVcsProvider extends AbstractVcsProvider {
      * @param b boolean
      * @return FilePatches list
      */
-    @SuppressWarnings("unchecked")
-    private List<FilePatch> buildFilePatchList(Project project, List<Change> changeList, String workingCopyDir, boolean b) {
-        Object object;
-        try {
-            // invoke api in 10.x
-            Class clz = Class.forName("com.intellij.openapi.diff.impl.patch.IdeaTextPatchBuilder");
-            Method method = clz.getMethod("buildPatch", Project.class, Collection.class, String.class, boolean.class);
-            object = method.invoke(null, project, changeList, workingCopyDir, b);
-        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException("BuildPatch method invocation error, " + e.getMessage());
-        }
-        if (object instanceof List) {
-            return (List<FilePatch>) object;
-        }
-        return null;
+    private static List<FilePatch> buildFilePatchList(Project project, List<Change> changeList, String workingCopyDir, boolean b) {
+        return PlatformCompat.buildPatch(project, changeList, workingCopyDir, b);
     }
 
 }
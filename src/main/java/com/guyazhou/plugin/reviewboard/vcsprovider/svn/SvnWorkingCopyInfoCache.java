@@ -0,0 +1,105 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider.svn;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.idea.svn.SvnVcs;
+import org.jetbrains.idea.svn.info.Info;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Svn info of working copy roots in a project, so that svn info runs once per root rather than once per file.
+ * An entry holds as long as the working copy metadata of its root is not written, an update, switch or commit writes it,
+ * editing files does not.
+ */
+public class SvnWorkingCopyInfoCache implements Disposable {
+
+    /**
+     * Working copy metadata, svn 1.7 and later keep one per working copy root
+     */
+    private static final String WC_DB = ".svn/wc.db";
+
+    private final Map<File, WorkingCopyInfo> infos = new ConcurrentHashMap<>();
+
+    public static SvnWorkingCopyInfoCache getInstance(Project project) {
+        return project.getService(SvnWorkingCopyInfoCache.class);
+    }
+
+    /**
+     * Get info of a working copy root, from cache if possible
+     *
+     * @param svnVcs          svn vcs
+     * @param workingCopyRoot working copy root
+     * @return working copy info, null if svn knows nothing about the root
+     */
+    public WorkingCopyInfo getInfo(SvnVcs svnVcs, File workingCopyRoot) {
+        String metadataStamp = getMetadataStamp(workingCopyRoot);
+        WorkingCopyInfo workingCopyInfo = infos.get(workingCopyRoot);
+        if (null != workingCopyInfo && null != metadataStamp && metadataStamp.equals(workingCopyInfo.metadataStamp)) {
+            return workingCopyInfo;
+        }
+        Info info = svnVcs.getInfo(workingCopyRoot);
+        if (null == info) {
+            infos.remove(workingCopyRoot);
+            return null;
+        }
+        workingCopyInfo = new WorkingCopyInfo(toStringOrNull(info.getUrl()), toStringOrNull(info.getRepositoryRootUrl()),
+                toStringOrNull(info.getRevision()), metadataStamp);
+        infos.put(workingCopyRoot, workingCopyInfo);
+        return workingCopyInfo;
+    }
+
+    /**
+     * Modification time and length of the working copy metadata of a root
+     *
+     * @param workingCopyRoot working copy root
+     * @return stamp, null if the root has no metadata of its own, its info is not cached then
+     */
+    private static String getMetadataStamp(File workingCopyRoot) {
+        File wcDb = new File(workingCopyRoot, WC_DB);
+        long lastModified = wcDb.lastModified();
+        return 0 == lastModified ? null : lastModified + ":" + wcDb.length();
+    }
+
+    private static String toStringOrNull(Object object) {
+        return null == object ? null : object.toString();
+    }
+
+    @Override
+    public void dispose() {
+        infos.clear();
+    }
+
+    /**
+     * Url, repository root url and revision of a working copy root
+     */
+    public static class WorkingCopyInfo {
+
+        private final String url;
+        private final String repositoryRootUrl;
+        private final String revision;
+        private final String metadataStamp;
+
+        private WorkingCopyInfo(String url, String repositoryRootUrl, String revision, String metadataStamp) {
+            this.url = url;
+            this.repositoryRootUrl = repositoryRootUrl;
+            this.revision = revision;
+            this.metadataStamp = metadataStamp;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getRepositoryRootUrl() {
+            return repositoryRootUrl;
+        }
+
+        public String getRevision() {
+            return revision;
+        }
+    }
+
+}
@@ -3,7 +3,6 @@ package com.intellij.openapi.diff.impl.patch;
 
 import cn.hutool.core.util.StrUtil;
 import com.guyazhou.plugin.reviewboard.utils.StringUtil;
-import com.guyazhou.plugin.reviewboard.vcsprovider.svn.SvnVcsProvider;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.changes.CommitContext;
 import com.intellij.openapi.vcs.changes.patch.GitPatchWriter;
@@ -17,7 +16,6 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
-import java.text.MessageFormat;
 import java.util.*;
 
 import static com.intellij.openapi.vcs.changes.patch.PatchWriter.shouldForceUnixLineSeparator;
@@ -27,7 +25,7 @@ import static com.intellij.openapi.vcs.changes.patch.PatchWriter.shouldForceUnix
  */
 public final class MyUnifiedDiffWriter {
     @NonNls
-    private static final String INDEX_SIGNATURE = "Index: {0}{1}";
+    private static final String INDEX_PREFIX = "Index: ";
     @NonNls
     public static final String ADDITIONAL_PREFIX = "author user info:";
     @NonNls
@@ -51,9 +49,9 @@ public final class MyUnifiedDiffWriter {
                              @NotNull Collection<? extends FilePatch> patches,
                              @NotNull Writer writer,
                              @NotNull String lineSeparator,
-                             @Nullable CommitContext commitContext, SvnVcsProvider svnVcsProvider) throws IOException {
+                             @Nullable CommitContext commitContext, @Nullable String workingCopyPathInRepository) throws IOException {
         write(project, project == null ? null : ProjectKt.getStateStore(project).getProjectBasePath(), patches, writer, lineSeparator,
-                commitContext, null, svnVcsProvider);
+                commitContext, null, workingCopyPathInRepository);
     }
 
     /**
@@ -66,13 +64,14 @@ public final class MyUnifiedDiffWriter {
                              @NotNull Writer writer,
                              @NotNull String lineSeparator,
                              @Nullable CommitContext commitContext,
-                             @Nullable List<PatchEP> patchEpExtensions, SvnVcsProvider svnVcsProvider) throws IOException {
+                             @Nullable List<PatchEP> patchEpExtensions, @Nullable String workingCopyPathInRepository) throws IOException {
         boolean forceUnixSeparators = shouldForceUnixLineSeparator(project);
         String headerLineSeparator = forceUnixSeparators ? "\n" : lineSeparator;
 
         // write the patch files without content modifications strictly after the files with content modifications,
         // because GitPatchReader is not ready for mixed style patches
         List<FilePatch> noContentPatches = new ArrayList<>();
+        LineBuffer lineBuffer = new LineBuffer();
         for (FilePatch filePatch : patches) {
             if (!(filePatch instanceof TextFilePatch)) {
                 continue;
@@ -99,9 +98,9 @@ public final class MyUnifiedDiffWriter {
                 fileContentLineSeparator = headerLineSeparator;
             }
 
-            writeFileHeading(writer, basePath, patch, headerLineSeparator, additionalMap, svnVcsProvider);
+            writeFileHeading(writer, lineBuffer, basePath, patch, headerLineSeparator, additionalMap, workingCopyPathInRepository);
             for (PatchHunk hunk : patch.getHunks()) {
-                writeHunkStart(writer, hunk.getStartLineBefore(), hunk.getEndLineBefore(), hunk.getStartLineAfter(), hunk.getEndLineAfter(),
+                writeHunkStart(writer, lineBuffer, hunk.getStartLineBefore(), hunk.getEndLineBefore(), hunk.getStartLineAfter(), hunk.getEndLineAfter(),
                         headerLineSeparator);
                 for (PatchLine line : hunk.getLines()) {
                     char prefixChar = ' ';
@@ -118,12 +117,11 @@ public final class MyUnifiedDiffWriter {
                     }
                     String text = line.getText();
                     //text =  StrUtil.trimEnd(text);
-                    writeLine(writer, text, prefixChar);
                     if (line.isSuppressNewLine()) {
                         // do not use fileContentLineSeparator here, as this line has no own separator
-                        writer.write(headerLineSeparator + NO_NEWLINE_SIGNATURE + headerLineSeparator);
+                        writeLine(writer, lineBuffer, text, prefixChar, headerLineSeparator + NO_NEWLINE_SIGNATURE + headerLineSeparator);
                     } else {
-                        writer.write(fileContentLineSeparator);
+                        writeLine(writer, lineBuffer, text, prefixChar, fileContentLineSeparator);
                     }
                 }
             }
@@ -144,24 +142,25 @@ public final class MyUnifiedDiffWriter {
         return filePath;
     }
     private static void writeFileHeading(@NotNull final Writer writer,
+                                         @NotNull final LineBuffer lineBuffer,
                                          @Nullable Path basePath,
                                          @NotNull final FilePatch patch,
                                          @NotNull final String lineSeparator,
                                          @Nullable Map<String, CharSequence> additionalMap,
-                                         SvnVcsProvider svnVcsProvider) throws IOException {
-        writer.write(MessageFormat.format(INDEX_SIGNATURE, patch.getBeforeName(), lineSeparator));
+                                         @Nullable String workingCopyPathInRepository) throws IOException {
+        writeIndexLine(writer, lineBuffer, patch.getBeforeName(), lineSeparator);
         writeAdditionalInfo(writer, lineSeparator, additionalMap);
         writer.write(HEADER_SEPARATOR + lineSeparator);
         SvnPatchWriter.writeGitHeader(writer, basePath, patch, lineSeparator);
 
         String path = "";
-        if (StringUtils.isNotEmpty(svnVcsProvider.getWorkingCopyPathInRepository())) {
-            path = svnVcsProvider.getWorkingCopyPathInRepository().substring(1);
+        if (StringUtils.isNotEmpty(workingCopyPathInRepository)) {
+            path = workingCopyPathInRepository.substring(1);
         }
 
-        writeRevisionHeading(writer, "---", getRevisionHeadingPath(patch, true, path),
+        writeRevisionHeading(writer, lineBuffer, "---", getRevisionHeadingPath(patch, true, path),
                 patch.getBeforeVersionId(), lineSeparator);
-        writeRevisionHeading(writer, "+++", getRevisionHeadingPath(patch, false, path),
+        writeRevisionHeading(writer, lineBuffer, "+++", getRevisionHeadingPath(patch, false, path),
                 patch.getAfterVersionId(), lineSeparator);
     }
 
@@ -194,29 +193,103 @@ public final class MyUnifiedDiffWriter {
         }
     }
 
-    private static void writeRevisionHeading(final Writer writer, final String prefix,
-                                             final String revisionPath, final String revisionName,
-                                             final String lineSeparator)
+    static void writeIndexLine(@NotNull Writer writer, @NotNull LineBuffer lineBuffer, @Nullable String beforeName,
+                               @NotNull String lineSeparator) throws IOException {
+        lineBuffer.clear().append(INDEX_PREFIX).append(beforeName).append(lineSeparator).writeTo(writer);
+    }
+
+    static void writeRevisionHeading(final Writer writer, final LineBuffer lineBuffer, final String prefix,
+                                     final String revisionPath, final String revisionName,
+                                     final String lineSeparator)
             throws IOException {
-        writer.write(prefix + " ");
-        writer.write(revisionPath);
-        writer.write("\t");
+        lineBuffer.clear().append(prefix).append(' ').append(revisionPath).append('\t');
         if (revisionName!=null && !revisionName.trim().equals("")) {
-            writer.write(revisionName);
+            lineBuffer.append(revisionName);
         }
-        writer.write(lineSeparator);
+        lineBuffer.append(lineSeparator).writeTo(writer);
+    }
+
+    static void writeHunkStart(@NotNull Writer writer, @NotNull LineBuffer lineBuffer, int startLine1, int endLine1, int startLine2, int endLine2,
+                               @NotNull String lineSeparator) throws IOException {
+        lineBuffer.clear()
+                .append("@@ -").append(startLine1 + 1).append(',').append(endLine1 - startLine1)
+                .append(" +").append(startLine2 + 1).append(',').append(endLine2 - startLine2)
+                .append(" @@").append(lineSeparator)
+                .writeTo(writer);
     }
 
-    private static void writeHunkStart(@NotNull Writer writer, int startLine1, int endLine1, int startLine2, int endLine2,
-                                       @NotNull String lineSeparator) throws IOException {
-        writer.append(String.format("@@ -%s,%s +%s,%s @@",
-                startLine1 + 1, endLine1 - startLine1,
-                startLine2 + 1, endLine2 - startLine2));
-        writer.append(lineSeparator);
+    static void writeLine(@NotNull Writer writer, @NotNull LineBuffer lineBuffer, @NotNull String line, char prefix,
+                          @NotNull String lineEnd) throws IOException {
+        lineBuffer.clear().append(prefix).append(line).append(lineEnd).writeTo(writer);
     }
 
-    private static void writeLine(@NotNull Writer writer, @NotNull String line, char prefix) throws IOException {
-        writer.write(prefix);
-        writer.write(line);
+    /**
+     * Reusable char buffer, a whole line is assembled here and handed to the writer in one call.
+     * Integers are formatted in place, same digits as Integer.toString.
+     */
+    static final class LineBuffer {
+
+        private char[] chars = new char[256];
+        private int length;
+
+        LineBuffer clear() {
+            length = 0;
+            return this;
+        }
+
+        LineBuffer append(char c) {
+            ensureCapacity(1);
+            chars[length++] = c;
+            return this;
+        }
+
+        LineBuffer append(String s) {
+            if (s == null) {
+                s = "null";
+            }
+            int sLength = s.length();
+            ensureCapacity(sLength);
+            s.getChars(0, sLength, chars, length);
+            length += sLength;
+            return this;
+        }
+
+        LineBuffer append(int i) {
+            if (i == Integer.MIN_VALUE) {
+                return append(Integer.toString(i));
+            }
+            ensureCapacity(11);
+            if (i < 0) {
+                chars[length++] = '-';
+                i = -i;
+            }
+            int end = length + digitCount(i);
+            int pos = end;
+            do {
+                chars[--pos] = (char) ('0' + i % 10);
+                i /= 10;
+            } while (i != 0);
+            length = end;
+            return this;
+        }
+
+        void writeTo(Writer writer) throws IOException {
+            writer.write(chars, 0, length);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + extra));
+            }
+        }
+
+        private static int digitCount(int i) {
+            int count = 1;
+            while (i >= 10) {
+                i /= 10;
+                count++;
+            }
+            return count;
+        }
     }
 }
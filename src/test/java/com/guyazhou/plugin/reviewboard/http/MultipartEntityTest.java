@@ -0,0 +1,55 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The body read from the entity must be the body written onto the connection
+ */
+public class MultipartEntityTest {
+
+    @Test
+    public void contentIsTheWrittenBody() throws IOException {
+        MultipartEntity multipartEntity = newEntity(ContentSource.fromString("Index: a.txt\n", StandardCharsets.UTF_8));
+        assertArrayEquals(written(multipartEntity), read(multipartEntity));
+        assertEquals(multipartEntity.getContentLength(), read(multipartEntity).length);
+    }
+
+    @Test
+    public void contentSpilledToDisk() throws IOException {
+        byte[] diff = new byte[SpooledContentSource.DEFAULT_THRESHOLD + 1];
+        Arrays.fill(diff, (byte) 'x');
+        MultipartEntity multipartEntity = newEntity(ContentSource.fromInputStream(() -> new ByteArrayInputStream(diff)));
+        assertArrayEquals(written(multipartEntity), read(multipartEntity));
+    }
+
+    private static MultipartEntity newEntity(ContentSource diffSource) {
+        return new MultipartEntity()
+                .addTextPart("basedir", "/trunk")
+                .addFilePart("path", "review.diff", "text/x-patch", diffSource);
+    }
+
+    private static byte[] written(MultipartEntity multipartEntity) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        multipartEntity.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] read(MultipartEntity multipartEntity) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (InputStream inputStream = multipartEntity.getContent()) {
+            inputStream.transferTo(outputStream);
+        }
+        return outputStream.toByteArray();
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.guyazhou.plugin.reviewboard.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Content is replayed as written, in memory or spilled, and the spilled file goes with close
+ */
+public class SpooledContentSourceTest {
+
+    @Test
+    public void keptInMemoryUnderThreshold() throws IOException {
+        try (SpooledContentSource spooledContentSource = spool(new byte[16], 16)) {
+            assertFalse(spooledContentSource.isSpilled());
+            assertEquals(16, spooledContentSource.getLength());
+            assertArrayEquals(new byte[16], replay(spooledContentSource));
+        }
+    }
+
+    @Test
+    public void spilledOverThresholdAndDeletedOnClose() throws IOException {
+        byte[] content = new byte[100];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        SpooledContentSource spooledContentSource = spool(content, 16);
+        assertTrue(spooledContentSource.isSpilled());
+        assertArrayEquals(content, replay(spooledContentSource));
+        assertArrayEquals(content, replay(spooledContentSource));
+        spooledContentSource.close();
+        assertFalse(spooledContentSource.isSpilled());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void notReadableBeforeSealed() throws IOException {
+        SpooledContentSource spooledContentSource = new SpooledContentSource();
+        spooledContentSource.openOutputStream().write(1);
+        spooledContentSource.writeTo(new ByteArrayOutputStream());
+    }
+
+    private static SpooledContentSource spool(byte[] content, int threshold) throws IOException {
+        SpooledContentSource spooledContentSource = new SpooledContentSource(threshold);
+        try (OutputStream outputStream = spooledContentSource.openOutputStream()) {
+            outputStream.write(content, 0, 10);
+            outputStream.write(content, 10, content.length - 10);
+        }
+        return spooledContentSource;
+    }
+
+    private static byte[] replay(SpooledContentSource spooledContentSource) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        spooledContentSource.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.guyazhou.plugin.reviewboard.service;
+
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A fingerprint ignores what changes without the diff changing, and a diff is pending until its draft is published
+ */
+public class DiffFingerprintIndexTest {
+
+    private static final String API_URL = "http://rb/api/";
+
+    private static final String DIFF = "Index: src/a.txt\n"
+            + "===================================================================\n"
+            + "--- trunk/src/a.txt\t(revision 41)\n"
+            + "+++ trunk/src/a.txt\t(working copy)\n"
+            + "@@ -1,1 +1,1 @@\n"
+            + "-old\n"
+            + "+new\n";
+
+    @Test
+    public void lineEndingsAreIgnored() {
+        assertEquals(fingerprint(DIFF), fingerprint(DIFF.replace("\n", "\r\n")));
+    }
+
+    @Test
+    public void indexAndSeparatorLinesAreIgnored() {
+        String otherHeaders = DIFF.replace("Index: src/a.txt", "Index: D:\\work\\src\\a.txt")
+                .replace("===================================================================", "=============================================================================");
+        assertEquals(fingerprint(DIFF), fingerprint(otherHeaders));
+    }
+
+    @Test
+    public void contentChangesTheFingerprint() {
+        assertNotEquals(fingerprint(DIFF), fingerprint(DIFF.replace("+new", "+newer")));
+        assertNotEquals(fingerprint(DIFF), fingerprint(DIFF.replace("(revision 41)", "(revision 42)")));
+        // a short run of = is content, not the separator
+        assertNotEquals(fingerprint(DIFF + "+====\n"), fingerprint(DIFF + "+=====\n"));
+    }
+
+    @Test
+    public void basedirIsMixedIn() {
+        ContentSource diffSource = ContentSource.fromString(DIFF, StandardCharsets.UTF_8);
+        String fingerprint = DiffFingerprintIndex.fingerprint(diffSource, "/trunk", "/trunk/module");
+        assertEquals(fingerprint, DiffFingerprintIndex.fingerprint(diffSource, "/trunk", "/trunk/module"));
+        assertNotEquals(fingerprint, DiffFingerprintIndex.fingerprint(diffSource, "/branches/1.x", "/trunk/module"));
+        assertNotEquals(fingerprint, DiffFingerprintIndex.fingerprint(diffSource, "/trunk", "/trunk/other"));
+        // the separator keeps root and base path apart
+        assertNotEquals(DiffFingerprintIndex.fingerprint(diffSource, "/trunk/a", "b"), DiffFingerprintIndex.fingerprint(diffSource, "/trunk", "/ab"));
+        assertNotEquals(fingerprint, DiffFingerprintIndex.fingerprint(diffSource, null, null));
+    }
+
+    @Test
+    public void writeBoundariesAreIgnored() {
+        byte[] bytes = DIFF.replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8);
+        ContentSource byteByByte = outputStream -> {
+            for (byte b : bytes) {
+                outputStream.write(b);
+            }
+        };
+        ContentSource split = outputStream -> {
+            outputStream.write(bytes, 0, 5);
+            outputStream.write(bytes, 5, bytes.length - 5);
+        };
+        assertEquals(fingerprint(DIFF), DiffFingerprintIndex.fingerprint(byteByByte, null, null));
+        assertEquals(fingerprint(DIFF), DiffFingerprintIndex.fingerprint(split, null, null));
+    }
+
+    @Test
+    public void diffIsPendingUntilPublished() {
+        DiffFingerprintIndex diffFingerprintIndex = new DiffFingerprintIndex();
+        diffFingerprintIndex.markUploaded(API_URL, "7", "f1", new DiffFingerprintIndex.PendingDiff(70, 2));
+        assertTrue(diffFingerprintIndex.isUploaded(API_URL, "7", "f1"));
+        assertEquals(70, diffFingerprintIndex.getPendingDiff(API_URL, "7").getId());
+        assertEquals(2, diffFingerprintIndex.getPendingDiff(API_URL, "7").getRevision());
+
+        diffFingerprintIndex.markPublished(API_URL, "7");
+        assertTrue(diffFingerprintIndex.isUploaded(API_URL, "7", "f1"));
+        assertNull(diffFingerprintIndex.getPendingDiff(API_URL, "7"));
+
+        diffFingerprintIndex.markUploaded(API_URL, "7", "f2", new DiffFingerprintIndex.PendingDiff(71, 3));
+        assertFalse(diffFingerprintIndex.isUploaded(API_URL, "7", "f1"));
+        assertEquals(71, diffFingerprintIndex.getPendingDiff(API_URL, "7").getId());
+
+        diffFingerprintIndex.invalidate(API_URL, "7");
+        assertFalse(diffFingerprintIndex.isUploaded(API_URL, "7", "f2"));
+        assertNull(diffFingerprintIndex.getPendingDiff(API_URL, "7"));
+    }
+
+    @Test
+    public void oldestEntriesAreEvicted() {
+        DiffFingerprintIndex diffFingerprintIndex = new DiffFingerprintIndex();
+        for (int i = 0; i <= 500; i++) {
+            diffFingerprintIndex.markUploaded(API_URL, String.valueOf(i), "f" + i, new DiffFingerprintIndex.PendingDiff(i, 1));
+        }
+        assertNull(diffFingerprintIndex.getFingerprint(API_URL, "0"));
+        assertNull(diffFingerprintIndex.getPendingDiff(API_URL, "0"));
+        assertTrue(diffFingerprintIndex.isUploaded(API_URL, "500", "f500"));
+        assertEquals(500, diffFingerprintIndex.getState().getPendingDiffs().size());
+    }
+
+    private static String fingerprint(String diff) {
+        return DiffFingerprintIndex.fingerprint(ContentSource.fromString(diff, StandardCharsets.UTF_8), null, null);
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.guyazhou.plugin.reviewboard.service;
+
+import com.google.gson.JsonObject;
+import com.guyazhou.plugin.reviewboard.utils.JsonUtil;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The submit planner sends only the draft fields which differ from what the server holds
+ */
+public class DraftCacheTest {
+
+    private static final String SERVER_DRAFT = "{\"summary\": \"Fix login\", \"branch\": \"trunk\", \"bugs_closed\": [\"12\", \"34\"],"
+            + " \"description\": \"Session is cached\", \"target_people\": [{\"title\": \"alice\", \"href\": \"/api/users/alice/\"},"
+            + " {\"title\": \"bob\", \"href\": \"/api/users/bob/\"}], \"target_groups\": [], \"depends_on\":"
+            + " [{\"title\": \"Pool\", \"href\": \"http://rb/api/review-requests/41/\"}], \"links\": {}}";
+
+    @Test
+    public void serverDraftIsNormalized() {
+        Map<String, Object> fields = DraftCache.toDraftFields(parse(SERVER_DRAFT));
+        assertEquals("Fix login", fields.get("summary"));
+        assertEquals("12,34", fields.get("bugs_closed"));
+        assertEquals("alice,bob", fields.get("target_people"));
+        assertEquals("41", fields.get("depends_on"));
+        assertTrue("empty lists are left out", !fields.containsKey("target_groups"));
+    }
+
+    @Test
+    public void unchangedServerDraftSendsNothing() {
+        DraftCache.CachedDraft serverDraft = new DraftCache.CachedDraft(DraftCache.toDraftFields(parse(SERVER_DRAFT)), false);
+        Map<String, Object> draftFields = newDraftFields();
+        draftFields.put("svnRoot", "http://svn/repo");     // sent but never returned, must not count as a change
+        assertEquals(Collections.emptyMap(), serverDraft.getChangedFields(draftFields));
+    }
+
+    @Test
+    public void listsCompareAsSets() {
+        DraftCache.CachedDraft serverDraft = new DraftCache.CachedDraft(DraftCache.toDraftFields(parse(SERVER_DRAFT)), false);
+        Map<String, Object> draftFields = newDraftFields();
+        draftFields.put("target_people", "bob, alice");
+        draftFields.put("bugs_closed", "34 ,12,");
+        assertEquals(Collections.emptyMap(), serverDraft.getChangedFields(draftFields));
+    }
+
+    @Test
+    public void onlyChangedFieldsAreSent() {
+        DraftCache.CachedDraft serverDraft = new DraftCache.CachedDraft(DraftCache.toDraftFields(parse(SERVER_DRAFT)), false);
+        Map<String, Object> draftFields = newDraftFields();
+        draftFields.put("description", "Session is cached per server");
+        draftFields.put("target_groups", "core");
+        draftFields.put("target_people", "alice");
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("description", "Session is cached per server");
+        expected.put("target_groups", "core");
+        expected.put("target_people", "alice");
+        assertEquals(expected, serverDraft.getChangedFields(draftFields));
+    }
+
+    @Test
+    public void cachedDraftAsSent() {
+        Map<String, Object> sentFields = newDraftFields();
+        sentFields.put("svnRoot", "http://svn/repo");
+        DraftCache.CachedDraft cachedDraft = new DraftCache.CachedDraft(sentFields, true);
+        assertEquals(Collections.emptyMap(), cachedDraft.getChangedFields(sentFields));
+        Map<String, Object> draftFields = new HashMap<>(sentFields);
+        draftFields.put("summary", "Fix login again");
+        assertEquals(Collections.singletonMap("summary", "Fix login again"), cachedDraft.getChangedFields(draftFields));
+    }
+
+    @Test
+    public void emptyFieldsAreNotSent() {
+        DraftCache.CachedDraft serverDraft = new DraftCache.CachedDraft(DraftCache.toDraftFields(parse(SERVER_DRAFT)), false);
+        Map<String, Object> draftFields = newDraftFields();
+        draftFields.remove("branch");
+        assertEquals(Collections.emptyMap(), serverDraft.getChangedFields(draftFields));
+    }
+
+    private static Map<String, Object> newDraftFields() {
+        Map<String, Object> draftFields = new HashMap<>();
+        draftFields.put("summary", "Fix login");
+        draftFields.put("branch", "trunk");
+        draftFields.put("bugs_closed", "12,34");
+        draftFields.put("description", "Session is cached");
+        draftFields.put("target_people", "alice,bob");
+        draftFields.put("depends_on", "41");
+        return draftFields;
+    }
+
+    private static JsonObject parse(String json) {
+        return JsonUtil.getGson().fromJson(json, JsonObject.class);
+    }
+
+}
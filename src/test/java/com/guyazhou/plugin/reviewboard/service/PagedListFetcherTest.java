@@ -0,0 +1,143 @@
+package com.guyazhou.plugin.reviewboard.service;
+
+import com.guyazhou.plugin.reviewboard.http.AbortHandle;
+import com.guyazhou.plugin.reviewboard.model.ListResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages are fetched at the size the server returns, merged in order and run under the abort handle of the caller
+ */
+public class PagedListFetcherTest {
+
+    private static final String LIST_URL = "http://rb/api/users/";
+
+    @Test
+    public void pageURL() {
+        assertEquals(LIST_URL + "?start=0&max-results=200", PagedListFetcher.getFirstPageURL(LIST_URL));
+        assertEquals(LIST_URL + "?q=a&start=10&max-results=5", PagedListFetcher.getPageURL(LIST_URL + "?q=a", 10, 5));
+    }
+
+    @Test
+    public void singlePageIsReturnedAsIs() {
+        List<String> requestedURLs = Collections.synchronizedList(new ArrayList<>());
+        Function<String, Page> pageLoader = pageURL -> {
+            requestedURLs.add(pageURL);
+            return new Page(3, "a", "b", "c");
+        };
+        Page page = PagedListFetcher.fetchAll(LIST_URL, pageLoader);
+        assertArrayEquals(new String[]{"a", "b", "c"}, page.getItems());
+        assertEquals(Collections.singletonList(PagedListFetcher.getFirstPageURL(LIST_URL)), requestedURLs);
+    }
+
+    @Test
+    public void nullFirstPageIsNull() {
+        assertNull(PagedListFetcher.fetchAll(LIST_URL, pageURL -> null));
+    }
+
+    @Test
+    public void remainingPagesFollowTheServerPageSizeAndMergeInOrder() {
+        // asked for 200, the server caps at 3
+        Map<String, Page> pages = new ConcurrentHashMap<>();
+        pages.put(PagedListFetcher.getFirstPageURL(LIST_URL), new Page(8, "0", "1", "2"));
+        pages.put(PagedListFetcher.getPageURL(LIST_URL, 3, 3), new Page(8, "3", "4", "5"));
+        pages.put(PagedListFetcher.getPageURL(LIST_URL, 6, 3), new Page(8, "6", "7"));
+        Page page = PagedListFetcher.fetchAll(LIST_URL, pageURL -> {
+            Page loaded = pages.remove(pageURL);
+            if (null == loaded) {
+                throw new IllegalStateException("Unexpected page " + pageURL);
+            }
+            return loaded;
+        });
+        assertArrayEquals(new String[]{"0", "1", "2", "3", "4", "5", "6", "7"}, page.getItems());
+        assertTrue(pages.isEmpty());
+    }
+
+    @Test
+    public void pageWithoutItemsIsSkipped() {
+        Page first = new Page(4, "0", "1");
+        Page page = PagedListFetcher.fetchRemaining(LIST_URL, first, pageURL -> pageURL.contains("start=2&") ? new Page(4) : null);
+        assertSame(first, page);
+        assertArrayEquals(new String[]{"0", "1"}, page.getItems());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failedPageFailsTheFetch() {
+        PagedListFetcher.fetchRemaining(LIST_URL, new Page(6, "0", "1"), pageURL -> {
+            if (pageURL.contains("start=4&")) {
+                throw new IllegalStateException("page error");
+            }
+            return new Page(6, "x", "y");
+        });
+    }
+
+    @Test
+    public void pagesRunUnderTheAbortHandleOfTheCaller() {
+        AbortHandle abortHandle = new AbortHandle();
+        List<AbortHandle> pageHandles = Collections.synchronizedList(new ArrayList<>());
+        abortHandle.run(() -> PagedListFetcher.fetchRemaining(LIST_URL, new Page(6, "0", "1"), pageURL -> {
+            pageHandles.add(AbortHandle.current());
+            return new Page(6, "x", "y");
+        }));
+        assertEquals(Arrays.asList(abortHandle, abortHandle), pageHandles);
+    }
+
+    @Test
+    public void allMatch() {
+        List<Integer> pages = Arrays.asList(1, 2, 3, 4);
+        assertTrue(PagedListFetcher.allMatch(pages, page -> page > 0));
+        assertFalse(PagedListFetcher.allMatch(pages, page -> page != 3));
+        assertTrue(PagedListFetcher.allMatch(Collections.<Integer>emptyList(), page -> false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failedCheckFailsAllMatch() {
+        PagedListFetcher.allMatch(Arrays.asList(1, 2), page -> {
+            if (2 == page) {
+                throw new IllegalStateException("check error");
+            }
+            return true;
+        });
+    }
+
+    private static class Page implements ListResponse<String> {
+
+        private final Integer total;
+        private String[] items;
+
+        private Page(Integer total, String... items) {
+            this.total = total;
+            this.items = items;
+        }
+
+        @Override
+        public Integer getTotal_result() {
+            return total;
+        }
+
+        @Override
+        public String[] getItems() {
+            return items;
+        }
+
+        @Override
+        public void setItems(String[] items) {
+            this.items = items;
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.guyazhou.plugin.reviewboard.utils;
+
+import com.guyazhou.plugin.reviewboard.http.AbortableFuture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A cancelled call is waited for until it no longer runs, not only until its future is done
+ */
+public class FutureUtilTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void cancelWaitsForTheRunningCall() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean();
+        AbortableFuture<Boolean> future = AbortableFuture.supplyAsync(() -> {
+            started.countDown();
+            awaitQuietly(release);
+            finished.set(true);
+            return true;
+        }, executor);
+        started.await();
+        future.cancel(true);
+        assertTrue(future.isDone());
+        assertFalse("still running", future.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+        new Thread(() -> {
+            sleepQuietly(100);
+            release.countDown();
+        }).start();
+        assertTrue(FutureUtil.cancelAndAwait(Arrays.asList(future), 10));
+        assertTrue(finished.get());
+    }
+
+    @Test
+    public void callCancelledBeforeItStartsNeverRuns() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService singleExecutor = Executors.newSingleThreadExecutor();
+        try {
+            AbortableFuture<Boolean> blocker = AbortableFuture.supplyAsync(() -> awaitQuietly(release), singleExecutor);
+            AtomicBoolean ran = new AtomicBoolean();
+            AbortableFuture<Boolean> queued = AbortableFuture.supplyAsync(() -> ran.getAndSet(true), singleExecutor);
+            queued.cancel(true);
+            release.countDown();
+            assertTrue(FutureUtil.cancelAndAwait(Arrays.asList(blocker, queued), 10));
+            assertFalse(ran.get());
+        } finally {
+            singleExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timeoutIsReported() {
+        CountDownLatch release = new CountDownLatch(1);
+        AbortableFuture<Boolean> future = AbortableFuture.supplyAsync(() -> awaitQuietly(release), executor);
+        try {
+            assertFalse(FutureUtil.cancelAndAwait(Arrays.asList(future), 0));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static boolean awaitQuietly(CountDownLatch latch) {
+        try {
+            return latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) {
+            // stop sleeping
+        }
+    }
+
+}
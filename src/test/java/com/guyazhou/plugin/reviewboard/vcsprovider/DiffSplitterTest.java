@@ -0,0 +1,207 @@
+package com.guyazhou.plugin.reviewboard.vcsprovider;
+
+import com.guyazhou.plugin.reviewboard.http.ContentSource;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sections go by the header they follow, directories stay together while they fit and every line lands in one part, in order
+ */
+public class DiffSplitterTest {
+
+    @Test
+    public void withinBudgetIsNotSplit() throws IOException {
+        String diff = svnSection("a/1.txt") + svnSection("b/1.txt");
+        assertTrue(split(diff, 0, 2).isEmpty());
+        assertTrue(split(diff, diff.length(), 0).isEmpty());
+        assertTrue(split(diff, 0, 0).isEmpty());
+    }
+
+    @Test
+    public void svnAndGitHeadersStartSections() throws IOException {
+        String svn = "Index: a\\1.txt\n===\n--- a\\1.txt\n+++ a\\1.txt\n@@ -1 +1 @@\n-old\n+new\n";
+        String git = "diff --git a/b/1.txt b/b/1.txt\n--- a/b/1.txt\n+++ b/b/1.txt\n@@ -1 +1 @@\n-old\n+new\n";
+        List<DiffSplitter.DiffPart> diffParts = split(svn + git, 0, 1);
+        try {
+            assertEquals(2, diffParts.size());
+            assertEquals("a", diffParts.get(0).getName());
+            assertEquals(svn, read(diffParts.get(0)));
+            assertEquals("b", diffParts.get(1).getName());
+            assertEquals(git, read(diffParts.get(1)));
+        } finally {
+            close(diffParts);
+        }
+    }
+
+    @Test
+    public void headerInsideHunkStartsNoSection() throws IOException {
+        String first = "Index: a/1.txt\n@@ -1 +1 @@\n-Index: b/1.txt\n+diff --git a/b/1.txt b/b/1.txt\n";
+        String second = svnSection("b/2.txt");
+        List<DiffSplitter.DiffPart> diffParts = split(first + second, 0, 1);
+        try {
+            assertEquals(2, diffParts.size());
+            assertEquals(first, read(diffParts.get(0)));
+            assertEquals(second, read(diffParts.get(1)));
+        } finally {
+            close(diffParts);
+        }
+    }
+
+    @Test
+    public void preambleGoesWithTheFirstPartAndIsNoFile() throws IOException {
+        String preamble = "preamble line\n";
+        String diff = preamble + svnSection("1.txt") + svnSection("2.txt");
+        List<DiffSplitter.DiffPart> diffParts = split(diff, 0, 1);
+        try {
+            assertEquals(2, diffParts.size());
+            assertEquals(1, diffParts.get(0).getFileCount());
+            assertEquals(preamble + svnSection("1.txt"), read(diffParts.get(0)));
+            assertEquals("/", diffParts.get(0).getName());
+            assertEquals(svnSection("2.txt"), read(diffParts.get(1)));
+        } finally {
+            close(diffParts);
+        }
+    }
+
+    @Test
+    public void directoriesAreGroupedDeeperOnlyWhileOverBudget() throws IOException {
+        String diff = svnSection("a/x/1.txt") + svnSection("a/x/2.txt") + svnSection("a/y/1.txt")
+                + svnSection("b/1.txt") + svnSection("b/2.txt");
+        List<DiffSplitter.DiffPart> diffParts = split(diff, 0, 2);
+        try {
+            assertEquals(3, diffParts.size());
+            assertEquals("a/x", diffParts.get(0).getName());
+            assertEquals(2, diffParts.get(0).getFileCount());
+            assertEquals("a/y", diffParts.get(1).getName());
+            assertEquals(1, diffParts.get(1).getFileCount());
+            assertEquals("b", diffParts.get(2).getName());
+            assertEquals(2, diffParts.get(2).getFileCount());
+        } finally {
+            close(diffParts);
+        }
+    }
+
+    @Test
+    public void directoryOverBudgetIsSplitFileByFile() throws IOException {
+        String diff = svnSection("a/1.txt") + svnSection("a/2.txt") + svnSection("a/3.txt");
+        List<DiffSplitter.DiffPart> diffParts = split(diff, 0, 2);
+        try {
+            assertEquals(2, diffParts.size());
+            assertEquals(svnSection("a/1.txt") + svnSection("a/2.txt"), read(diffParts.get(0)));
+            assertEquals(svnSection("a/3.txt"), read(diffParts.get(1)));
+        } finally {
+            close(diffParts);
+        }
+    }
+
+    @Test
+    public void singleFileOverBudgetIsNotSplit() throws IOException {
+        String diff = svnSection("a/big.txt", 100);
+        assertTrue(split(diff, 10, 0).isEmpty());
+    }
+
+    @Test
+    public void fileOverBudgetGetsAPartOfItsOwn() throws IOException {
+        String small = svnSection("a/small.txt");
+        String big = svnSection("a/big.txt", 100);
+        List<DiffSplitter.DiffPart> diffParts = split(small + big, small.length(), 0);
+        try {
+            assertEquals(2, diffParts.size());
+            assertEquals(big, read(diffParts.get(0)));
+            assertEquals(small, read(diffParts.get(1)));
+        } finally {
+            close(diffParts);
+        }
+    }
+
+    @Test
+    public void linesAreRoutedInOriginalOrder() throws IOException {
+        // sections out of path order, a part gets them as they come in the diff
+        String b2 = svnSection("b/2.txt");
+        String a1 = svnSection("a/1.txt");
+        String b1 = svnSection("b/1.txt");
+        String a2 = "Index: a/2.txt\r\n@@ -1 +1 @@\r\n-old\r\n+new";   // crlf and no line feed at the end
+        List<DiffSplitter.DiffPart> diffParts = split(b2 + a1 + b1 + a2, 0, 2);
+        try {
+            assertEquals(2, diffParts.size());
+            assertEquals("a", diffParts.get(0).getName());
+            assertEquals(a1 + a2, read(diffParts.get(0)));
+            assertEquals("b", diffParts.get(1).getName());
+            assertEquals(b2 + b1, read(diffParts.get(1)));
+        } finally {
+            close(diffParts);
+        }
+    }
+
+    @Test
+    public void chunkBoundariesDoNotMatter() throws IOException {
+        String diff = svnSection("a/1.txt") + svnSection("b/1.txt");
+        byte[] bytes = diff.getBytes(StandardCharsets.UTF_8);
+        ContentSource chunkedSource = new ContentSource() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                for (int i = 0; i < bytes.length; i += 3) {
+                    if (i % 2 == 0) {
+                        outputStream.write(bytes, i, Math.min(3, bytes.length - i));
+                    } else {
+                        for (int j = i; j < Math.min(i + 3, bytes.length); j++) {
+                            outputStream.write(bytes[j]);
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public long getLength() {
+                return bytes.length;
+            }
+        };
+        List<DiffSplitter.DiffPart> diffParts = DiffSplitter.split(chunkedSource, 0, 1);
+        try {
+            assertEquals(2, diffParts.size());
+            assertEquals(svnSection("a/1.txt"), read(diffParts.get(0)));
+            assertEquals(svnSection("b/1.txt"), read(diffParts.get(1)));
+        } finally {
+            close(diffParts);
+        }
+    }
+
+    private static String svnSection(String path) {
+        return svnSection(path, 1);
+    }
+
+    private static String svnSection(String path, int changedLines) {
+        StringBuilder section = new StringBuilder("Index: " + path + "\n")
+                .append("===================================================================\n")
+                .append("--- ").append(path).append("\t(revision 1)\n")
+                .append("+++ ").append(path).append("\t(working copy)\n")
+                .append("@@ -1,").append(changedLines).append(" +1,").append(changedLines).append(" @@\n");
+        for (int i = 0; i < changedLines; i++) {
+            section.append("-old ").append(i).append('\n').append("+new ").append(i).append('\n');
+        }
+        return section.toString();
+    }
+
+    private static List<DiffSplitter.DiffPart> split(String diff, long maxBytes, int maxFiles) throws IOException {
+        return DiffSplitter.split(ContentSource.fromString(diff, StandardCharsets.UTF_8), maxBytes, maxFiles);
+    }
+
+    private static String read(DiffSplitter.DiffPart diffPart) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        diffPart.getDiffSource().writeTo(outputStream);
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void close(List<DiffSplitter.DiffPart> diffParts) {
+        diffParts.forEach(DiffSplitter.DiffPart::close);
+    }
+
+}
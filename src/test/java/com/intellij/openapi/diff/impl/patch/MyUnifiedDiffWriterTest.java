@@ -0,0 +1,136 @@
+package com.intellij.openapi.diff.impl.patch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The line buffer emission must be byte for byte the String.format, MessageFormat and separate writes it replaced
+ */
+public class MyUnifiedDiffWriterTest {
+
+    private static final String[] SEPARATORS = {"\n", "\r\n"};
+
+    private static final int[] INTS = {0, 1, -1, 9, 10, 99, 100, 999_999_999, 1_000_000_000, -1_000_000_000,
+            Integer.MAX_VALUE, Integer.MAX_VALUE - 1, Integer.MIN_VALUE, Integer.MIN_VALUE + 1};
+
+    private static final String[] NAMES = {null, "", "a.txt", "src/main/java/Foo.java", "dir with space/{0} it's.txt",
+            "中文/文件.txt", "tab\tname"};
+
+    private final MyUnifiedDiffWriter.LineBuffer lineBuffer = new MyUnifiedDiffWriter.LineBuffer();
+
+    @Test
+    public void indexLine() throws IOException {
+        for (String separator : SEPARATORS) {
+            for (String name : NAMES) {
+                StringWriter expected = new StringWriter();
+                expected.write(MessageFormat.format("Index: {0}{1}", name, separator));
+                StringWriter actual = new StringWriter();
+                MyUnifiedDiffWriter.writeIndexLine(actual, lineBuffer, name, separator);
+                assertEquals(expected.toString(), actual.toString());
+            }
+        }
+    }
+
+    @Test
+    public void revisionHeading() throws IOException {
+        String[] revisionNames = {null, "", "   ", "(revision 42)", "(working copy)"};
+        for (String separator : SEPARATORS) {
+            for (String prefix : new String[]{"---", "+++"}) {
+                for (String name : NAMES) {
+                    String path = null == name ? "/dev/null" : "trunk/" + name;
+                    for (String revisionName : revisionNames) {
+                        StringWriter expected = new StringWriter();
+                        legacyRevisionHeading(expected, prefix, path, revisionName, separator);
+                        StringWriter actual = new StringWriter();
+                        MyUnifiedDiffWriter.writeRevisionHeading(actual, lineBuffer, prefix, path, revisionName, separator);
+                        assertEquals(expected.toString(), actual.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void hunkStartAtIntExtremes() throws IOException {
+        for (String separator : SEPARATORS) {
+            for (int start1 : INTS) {
+                for (int end1 : INTS) {
+                    for (int start2 : INTS) {
+                        for (int end2 : new int[]{start2, end1, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+                            assertHunkStart(start1, end1, start2, end2, separator);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void hunkStartRandom() throws IOException {
+        Random random = new Random(20180815L);
+        for (int i = 0; i < 100_000; i++) {
+            int bound = random.nextBoolean() ? 10_000 : Integer.MAX_VALUE;
+            int start1 = random.nextInt(bound);
+            int start2 = random.nextInt(bound);
+            assertHunkStart(start1, start1 + random.nextInt(1000), start2, start2 + random.nextInt(1000),
+                    SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+    }
+
+    @Test
+    public void lines() throws IOException {
+        Random random = new Random(20180816L);
+        for (String separator : SEPARATORS) {
+            for (String lineEnd : new String[]{separator, separator + MyUnifiedDiffWriter.NO_NEWLINE_SIGNATURE + separator}) {
+                for (char prefix : new char[]{' ', '+', '-'}) {
+                    for (String text : new String[]{"", " ", "\t", "int i = 0;", "中文", randomText(random, 300),
+                            randomText(random, 5000)}) {   // longer than the initial buffer
+                        StringWriter expected = new StringWriter();
+                        expected.write(prefix);
+                        expected.write(text);
+                        expected.write(lineEnd);
+                        StringWriter actual = new StringWriter();
+                        MyUnifiedDiffWriter.writeLine(actual, lineBuffer, text, prefix, lineEnd);
+                        assertEquals(expected.toString(), actual.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    private void assertHunkStart(int start1, int end1, int start2, int end2, String separator) throws IOException {
+        StringWriter expected = new StringWriter();
+        expected.append(String.format("@@ -%s,%s +%s,%s @@", start1 + 1, end1 - start1, start2 + 1, end2 - start2));
+        expected.append(separator);
+        StringWriter actual = new StringWriter();
+        MyUnifiedDiffWriter.writeHunkStart(actual, lineBuffer, start1, end1, start2, end2, separator);
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    private static void legacyRevisionHeading(Writer writer, String prefix, String revisionPath, String revisionName,
+                                              String lineSeparator) throws IOException {
+        writer.write(prefix + " ");
+        writer.write(revisionPath);
+        writer.write("\t");
+        if (revisionName != null && !revisionName.trim().equals("")) {
+            writer.write(revisionName);
+        }
+        writer.write(lineSeparator);
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder stringBuilder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            stringBuilder.append((char) (0x20 + random.nextInt(0x3000)));
+        }
+        return stringBuilder.toString();
+    }
+
+}